@@ -0,0 +1,90 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+// What a thread does after a failed CAS before it retries. Skiplists call backoff() with the
+// number of consecutive failures of the current operation (or of the current find()), starting
+// at 1, so policies keep no per-thread state and can be shared by all threads.
+public interface BackoffPolicy {
+        void backoff(int failures);
+
+        /* Retry immediately; the behaviour of the lists without a policy */
+        public static final BackoffPolicy NONE = new None();
+
+        /* Returns the policy called name, or null if there is none. */
+        public static BackoffPolicy get(String name) {
+                switch (name) {
+                case "None":
+                        return NONE;
+                case "Exponential":
+                        return new Exponential(4, 1024);
+                case "RandomExponential":
+                        return new RandomExponential(4, 1024);
+                case "SpinYield":
+                        return new SpinThenYield(64);
+                default:
+                        return null;
+                }
+        }
+
+        /* Busy-waits for the given number of spin-wait hints */
+        private static void spin(int spins) {
+                for (int i = 0; i < spins; i++) {
+                        Thread.onSpinWait();
+                }
+        }
+
+        public static class None implements BackoffPolicy {
+                public void backoff(int failures) {
+                }
+        }
+
+        // Spins min * 2^(failures - 1) times, capped at max.
+        public static class Exponential implements BackoffPolicy {
+                private final int min, max;
+
+                public Exponential(int min, int max) {
+                        this.min = min;
+                        this.max = max;
+                }
+
+                public void backoff(int failures) {
+                        spin(limit(min, max, failures));
+                }
+
+                static int limit(int min, int max, int failures) {
+                        int shift = Math.min(failures - 1, 30);
+                        return (int) Math.min((long) min << shift, max);
+                }
+        }
+
+        // As Exponential, but spins a uniformly random number of times up to that limit, so threads
+        // that failed against each other do not retry in lockstep.
+        public static class RandomExponential implements BackoffPolicy {
+                private final int min, max;
+
+                public RandomExponential(int min, int max) {
+                        this.min = min;
+                        this.max = max;
+                }
+
+                public void backoff(int failures) {
+                        spin(ThreadLocalRandom.current().nextInt(Exponential.limit(min, max, failures)) + 1);
+                }
+        }
+
+        // Spins for the first failures, then gives up the processor with Thread.yield().
+        public static class SpinThenYield implements BackoffPolicy {
+                private final int spinFailures;
+
+                public SpinThenYield(int spinFailures) {
+                        this.spinFailures = spinFailures;
+                }
+
+                public void backoff(int failures) {
+                        if (failures <= spinFailures) {
+                                Thread.onSpinWait();
+                        } else {
+                                Thread.yield();
+                        }
+                }
+        }
+}
@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Binary dump of a linearization log, one file per thread, thread-<id>.log.
+// A file is a HEADER_BYTES header followed by fixed-width little-endian records:
+//   long timestamp, int key, byte method and return value packed as by ColumnarLog.pack().
+// Records are sorted by timestamp, ties in log order, so LogValidator can merge the files
+// without sorting. Files are read and written through memory-mapped regions of up to
+// REGION_BYTES, without creating an object per record.
+public class BinaryLog {
+    /* "LINL", then the format version */
+    static final int MAGIC = 0x4C4E494C;
+    static final int VERSION = 1;
+
+    /* int magic, int version, int threadId, int record bytes, long records, long reserved */
+    static final int HEADER_BYTES = 32;
+    static final int RECORD_BYTES = 8 + 4 + 1;
+    /* Mapped at a time, a whole number of records */
+    static final long REGION_BYTES = (64L << 20) / RECORD_BYTES * RECORD_BYTES;
+
+    private BinaryLog() {
+        // Do not implement
+    }
+
+    static Path file(Path dir, int threadId) {
+        return dir.resolve("thread-" + threadId + ".log");
+    }
+
+    // Writes the entries order[0, size) of one thread's columns to dir, replacing its file.
+    static void write(Path dir, int threadId, long[] timestamps, int[] args, byte[] ops, int[] order, int size)
+            throws IOException {
+        Files.createDirectories(dir);
+        try (FileChannel channel = FileChannel.open(file(dir, threadId), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(threadId).putInt(RECORD_BYTES).putLong(size).putLong(0);
+
+            long position = HEADER_BYTES;
+            int k = 0;
+            while (k < size) {
+                int records = (int) Math.min(size - k, REGION_BYTES / RECORD_BYTES);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                                                      (long) records * RECORD_BYTES);
+                region.order(ByteOrder.LITTLE_ENDIAN);
+                for (int end = k + records; k < end; k++) {
+                    int e = order[k];
+                    region.putLong(timestamps[e]).putInt(args[e]).put(ops[e]);
+                }
+                position += (long) records * RECORD_BYTES;
+            }
+        }
+    }
+
+    // Sequential reader of one thread's file. The current record is in timestamp, key and op.
+    static final class Reader implements AutoCloseable {
+        private final FileChannel channel;
+        private final int threadId;
+        private final long records;
+        private MappedByteBuffer region;
+        private long position = HEADER_BYTES;
+        private long read = 0;
+
+        long timestamp;
+        int key;
+        byte op;
+
+        Reader(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            if (channel.size() < HEADER_BYTES) {
+                channel.close();
+                throw new IOException(path + ": not a log file");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            int magic = header.getInt();
+            int version = header.getInt();
+            threadId = header.getInt();
+            int recordBytes = header.getInt();
+            records = header.getLong();
+            if (magic != MAGIC || version != VERSION || recordBytes != RECORD_BYTES
+                    || channel.size() < HEADER_BYTES + records * RECORD_BYTES) {
+                channel.close();
+                throw new IOException(path + ": not a version " + VERSION + " log file, or truncated");
+            }
+        }
+
+        int threadId() {
+            return threadId;
+        }
+
+        long records() {
+            return records;
+        }
+
+        // Moves to the next record, returns false at the end of the file.
+        boolean next() throws IOException {
+            if (read == records) {
+                return false;
+            }
+            if (region == null || !region.hasRemaining()) {
+                long bytes = Math.min((records - read) * RECORD_BYTES, REGION_BYTES);
+                region = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes);
+                region.order(ByteOrder.LITTLE_ENDIAN);
+                position += bytes;
+            }
+            timestamp = region.getLong();
+            key = region.getInt();
+            op = region.get();
+            read++;
+            return true;
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Source of the linearization timestamps of the logging skiplists. Log.validate only compares
+// timestamps, so any clock whose order matches the real order of the linearization points works;
+// the cheaper clocks below trade some of that accuracy for overhead.
+public interface Clock {
+        // A timestamp for a linearization point reached now by threadId.
+        long now(int threadId);
+
+        // Whether searches sample the clock once, where they end on the bottom level, instead of
+        // on every bottom-level step.
+        default boolean lazy() {
+                return false;
+        }
+
+        /* System.nanoTime(); the behaviour of the lists without a clock */
+        public static final Clock NANO = new NanoTime();
+
+        /* Returns a new clock called name for threadIds 0 to threads - 1, or null if there is none. */
+        public static Clock get(String name, int threads) {
+                switch (name) {
+                case "NanoTime":
+                        return NANO;
+                case "Ticket":
+                        return new Ticket();
+                case "Striped":
+                        return new Striped(Math.max(threads, 1), 64);
+                case "Lazy":
+                        return new Lazy();
+                default:
+                        return null;
+                }
+        }
+
+        public static class NanoTime implements Clock {
+                public long now(int threadId) {
+                        return System.nanoTime();
+                }
+        }
+
+        // A global fetch-and-add counter: distinct timestamps in the order they were taken, at the
+        // price of every timestamp contending for one cache line. The lists take a timestamp next
+        // to their linearizing CAS rather than atomically with it, so two operations close
+        // together can still be stamped in the opposite order to the one they took effect in.
+        public static class Ticket implements Clock {
+                private final AtomicLong ticket = new AtomicLong();
+
+                public long now(int threadId) {
+                        return ticket.getAndIncrement();
+                }
+        }
+
+        // A logical clock with one counter per thread. Each timestamp is one more than the larger
+        // of the thread's last timestamp and a shared clock, which the thread only advances to its
+        // own every syncEvery timestamps, so the shared clock is mostly read. Timestamps of
+        // different threads between two synchronizations are ordered arbitrarily.
+        public static class Striped implements Clock {
+                /* Longs between two threads' stripes, 128 bytes */
+                private static final int STRIDE = 16;
+
+                private final AtomicLong shared = new AtomicLong();
+                private final int syncEvery;
+                /* stripes[threadId * STRIDE] is the last timestamp, the next long counts to syncEvery */
+                private final long[] stripes;
+
+                // For threadIds 0 to threads - 1.
+                public Striped(int threads, int syncEvery) {
+                        this.syncEvery = syncEvery;
+                        stripes = new long[(threads + 1) * STRIDE];
+                }
+
+                public long now(int threadId) {
+                        int stripe = (threadId + 1) * STRIDE;
+                        long timestamp = Math.max(stripes[stripe], shared.get()) + 1;
+                        stripes[stripe] = timestamp;
+                        if (++stripes[stripe + 1] == syncEvery) {
+                                stripes[stripe + 1] = 0;
+                                long current = shared.get();
+                                while (current < timestamp && !shared.compareAndSet(current, timestamp)) {
+                                        current = shared.get();
+                                }
+                        }
+                        return timestamp;
+                }
+        }
+
+        // System.nanoTime(), but sampled once per search instead of on every bottom-level step.
+        public static class Lazy extends NanoTime {
+                public boolean lazy() {
+                        return true;
+                }
+        }
+}
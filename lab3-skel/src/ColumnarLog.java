@@ -0,0 +1,230 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Per-thread linearization logs stored as columns of primitives instead of Log.Entry objects:
+// one long[] of timestamps, one int[] of arguments and one byte[] packing the method and the
+// return value, so appending allocates nothing once a thread's columns are large enough.
+// reserve() sizes the columns for a whole run up front. A thread's columns are allocated by the
+// thread itself on its first append, so the columns of different threads do not share cache
+// lines. Log.Entry objects are only created by toEntries(); validate() reads the columns.
+// In streaming mode, see stream(), full columns are handed to a StreamingValidator instead of
+// being grown, so the log stays bounded however long the run.
+public class ColumnarLog {
+    /* Entries per thread if reserve() is never called */
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private static final Log.Method[] METHODS = Log.Method.values();
+
+    private final Column[] columns;
+    /* Capacity of columns allocated from now on */
+    private int capacity = DEFAULT_CAPACITY;
+    /* Receives full columns in streaming mode, null otherwise */
+    private StreamingValidator validator = null;
+
+    // Read by StreamingValidator once a column is published
+    static final class Column {
+        long[] timestamps;
+        int[] args;
+        /* See pack() */
+        byte[] ops;
+        int size = 0;
+
+        public Column(int capacity) {
+            timestamps = new long[capacity];
+            args = new int[capacity];
+            ops = new byte[capacity];
+        }
+
+        public void resize(int capacity) {
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            args = Arrays.copyOf(args, capacity);
+            ops = Arrays.copyOf(ops, capacity);
+        }
+    }
+
+    // One log per thread, for threadIds 0 to threads - 1.
+    public ColumnarLog(int threads) {
+        columns = new Column[threads];
+    }
+
+    // Only called by threadId itself. Doubles the thread's columns if they are full, or in
+    // streaming mode publishes them as soon as they fill up and continues in an empty one.
+    public void append(int threadId, Log.Method method, int arg, boolean ret, long timestamp) {
+        Column column = columns[threadId];
+        if (column == null) {
+            column = new Column(capacity);
+            columns[threadId] = column;
+        }
+        int i = column.size;
+        if (i == column.timestamps.length) {
+            column.resize(Math.max(2 * i, 1));
+        }
+        column.timestamps[i] = timestamp;
+        column.args[i] = arg;
+        column.ops[i] = pack(method, ret);
+        column.size = i + 1;
+        if (validator != null && column.size == column.timestamps.length) {
+            // The thread's later entries are not older than the ones it has written, so the
+            // newest of them is its watermark, in the timestamp domain of whatever clock made them
+            seal(threadId, column, maxTimestamp(column));
+        }
+    }
+
+    private static long maxTimestamp(Column column) {
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < column.size; i++) {
+            max = Math.max(max, column.timestamps[i]);
+        }
+        return max;
+    }
+
+    // Makes room for entriesPerThread entries in every thread's log.
+    // Must not run concurrently with append().
+    public void reserve(int entriesPerThread) {
+        capacity = Math.max(entriesPerThread, 1);
+        for (Column column : columns) {
+            if (column != null && column.timestamps.length < capacity) {
+                column.resize(capacity);
+            }
+        }
+    }
+
+    /* Publishes column and installs an empty one, recycled by the validator if it can */
+    private void seal(int threadId, Column column, long watermark) {
+        validator.publish(threadId, column, watermark);
+        Column empty = validator.recycled(threadId);
+        if (empty == null) {
+            empty = new Column(capacity);
+        }
+        columns[threadId] = empty;
+    }
+
+    // Starts streaming mode: from now on entries are published in segments of segmentSize
+    // entries to a new StreamingValidator, which validates them in the background while the
+    // run goes on. progress, if not null, receives its live reports.
+    // Must not run concurrently with append(), and needs one thread per log (threads > 0).
+    public StreamingValidator stream(int segmentSize, PrintStream progress) {
+        validator = new StreamingValidator(columns.length, progress);
+        capacity = Math.max(segmentSize, 1);
+        for (int t = 0; t < columns.length; t++) {
+            columns[t] = null;
+        }
+        validator.start();
+        return validator;
+    }
+
+    // Ends streaming mode: publishes what is left of every log, waits for the validator to
+    // replay it and returns the run's discrepancies. Must not run concurrently with append().
+    public int endStream() {
+        for (int t = 0; t < columns.length; t++) {
+            Column column = columns[t];
+            validator.publish(t, column != null && column.size > 0 ? column : null, Long.MAX_VALUE);
+            columns[t] = null;
+        }
+        int discrepancies = (int) validator.finish();
+        validator = null;
+        capacity = DEFAULT_CAPACITY;
+        return discrepancies;
+    }
+
+    // Writes every thread's log to dir in BinaryLog format, sorted by timestamp, for LogValidator.
+    // Must not run concurrently with append().
+    public void dump(Path dir) throws IOException {
+        for (int t = 0; t < columns.length; t++) {
+            Column column = columns[t];
+            if (column == null) {
+                continue;
+            }
+            int[] order = new int[column.size];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            ParallelValidator.sort(order, 0, order.length, column.timestamps);
+            BinaryLog.write(dir, t, column.timestamps, column.args, column.ops, order, column.size);
+        }
+    }
+
+    // Number of entries in all threads' logs.
+    public int size() {
+        int size = 0;
+        for (Column column : columns) {
+            if (column != null) {
+                size += column.size;
+            }
+        }
+        return size;
+    }
+
+    // Empties every log, keeping the columns. Must not run concurrently with append().
+    public void clear() {
+        for (Column column : columns) {
+            if (column != null) {
+                column.size = 0;
+            }
+        }
+    }
+
+    // All threads' entries as Log.Entry objects, sorted by timestamp.
+    public Log.Entry[] toEntries() {
+        Merged merged = concatenate();
+        int[] order = new int[merged.timestamps.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        ParallelValidator.sort(order, 0, order.length, merged.timestamps);
+        Log.Entry[] entries = new Log.Entry[order.length];
+        for (int i = 0; i < entries.length; i++) {
+            int e = order[i];
+            entries[i] = new Log.Entry(method(merged.ops[e]), merged.args[e], ret(merged.ops[e]), merged.timestamps[e]);
+        }
+        return entries;
+    }
+
+    // Same as Log.validate(toEntries()), without creating the entries, see ParallelValidator.
+    public int validate() {
+        Merged merged = concatenate();
+        return ParallelValidator.validate(merged.timestamps, merged.args, merged.ops, merged.timestamps.length);
+    }
+
+    /* A method and return value packed into one byte, and unpacked */
+    static byte pack(Log.Method method, boolean ret) {
+        return (byte) (method.ordinal() << 1 | (ret ? 1 : 0));
+    }
+
+    static Log.Method method(byte op) {
+        return METHODS[op >> 1];
+    }
+
+    static boolean ret(byte op) {
+        return (op & 1) != 0;
+    }
+
+    // Every thread's columns concatenated
+    private static final class Merged {
+        private final long[] timestamps;
+        private final int[] args;
+        private final byte[] ops;
+
+        public Merged(int size) {
+            timestamps = new long[size];
+            args = new int[size];
+            ops = new byte[size];
+        }
+    }
+
+    private Merged concatenate() {
+        Merged merged = new Merged(size());
+        int offset = 0;
+        for (Column column : columns) {
+            if (column != null) {
+                System.arraycopy(column.timestamps, 0, merged.timestamps, offset, column.size);
+                System.arraycopy(column.args, 0, merged.args, offset, column.size);
+                System.arraycopy(column.ops, 0, merged.ops, offset, column.size);
+                offset += column.size;
+            }
+        }
+        return merged;
+    }
+}
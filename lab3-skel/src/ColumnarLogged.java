@@ -0,0 +1,9 @@
+// A set that records its linearization points in a ColumnarLog.
+public interface ColumnarLogged {
+        // Sizes every thread's log for entriesPerThread entries, so that runs of up to that many
+        // operations per thread do not grow it. Must not run concurrently with other operations.
+        void reserveLog(int entriesPerThread);
+        // The set's log, for validation without materializing Log.Entry objects,
+        // or null if the set is not logging or does not keep its log in one ColumnarLog.
+        ColumnarLog columnarLog();
+}
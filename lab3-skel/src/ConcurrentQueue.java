@@ -0,0 +1,23 @@
+// Unbounded multi-producer, multi-consumer queue, the API of LockFreeQueue.
+// CustomLogSkipList keeps its global log in one.
+public interface ConcurrentQueue<T> {
+    public void enq(T value);
+
+    // Throws IllegalStateException if the queue is empty.
+    public T deq() throws IllegalStateException;
+
+    // As enq(value), by the caller threadId; WaitFreeQueue announces its operations per thread.
+    default void enq(int threadId, T value) {
+        enq(value);
+    }
+
+    default T deq(int threadId) throws IllegalStateException {
+        return deq();
+    }
+
+    // The values in queue order, in a, or in a new array of the same type if a is too short.
+    // Only for a queue that no thread is changing.
+    public T[] toArray(T[] a);
+
+    public void clear();
+}
@@ -0,0 +1,153 @@
+// Contention counters of one thread, or the sum over several threads:
+// - CAS failures per level, and per bucket of the key range (a heatmap),
+// - restarts of find() from head after a failed snip,
+// - snips of marked nodes done by find() on behalf of their removers (helping),
+// - nodes stepped over per level while searching.
+// Each thread only writes its own profile. All counters live in one array with padding at both
+// ends, so the profiles of different threads never share a cache line.
+public class ContentionProfile {
+    /* 128 bytes of longs on either side of the counters */
+    private static final int PAD = 16;
+
+    private static final int RETRIES = PAD;
+    private static final int SNIPS = PAD + 1;
+    private static final int CAS_FAILURES = PAD + 2;
+
+    private final int levels;
+    private final int buckets;
+    private final int maxKey;
+    private final int traversed;
+    private final int heatmap;
+    private final long[] counters;
+
+    // levels is the number of levels including the bottom one; keys in [0, maxKey) are spread
+    // over `buckets` equal-width heatmap buckets, keys outside it go to the first or last bucket.
+    public ContentionProfile(int levels, int maxKey, int buckets) {
+        this.levels = levels;
+        this.buckets = buckets;
+        this.maxKey = Math.max(maxKey, 1);
+        traversed = CAS_FAILURES + levels;
+        heatmap = traversed + levels;
+        counters = new long[heatmap + buckets + PAD];
+    }
+
+    public void casFailure(int level, int key) {
+        counters[CAS_FAILURES + level]++;
+        counters[heatmap + bucket(key)]++;
+    }
+
+    public void retry() {
+        counters[RETRIES]++;
+    }
+
+    public void snip() {
+        counters[SNIPS]++;
+    }
+
+    public void traverse(int level) {
+        counters[traversed + level]++;
+    }
+
+    private int bucket(int key) {
+        long bucket = (long) key * buckets / maxKey;
+        return (int) Math.max(0, Math.min(bucket, buckets - 1));
+    }
+
+    public int levels() {
+        return levels;
+    }
+
+    public int buckets() {
+        return buckets;
+    }
+
+    public long retries() {
+        return counters[RETRIES];
+    }
+
+    public long snips() {
+        return counters[SNIPS];
+    }
+
+    public long casFailures(int level) {
+        return counters[CAS_FAILURES + level];
+    }
+
+    public long casFailures() {
+        return sum(CAS_FAILURES, levels);
+    }
+
+    public long traversed(int level) {
+        return counters[traversed + level];
+    }
+
+    public long traversed() {
+        return sum(traversed, levels);
+    }
+
+    public long heat(int bucket) {
+        return counters[heatmap + bucket];
+    }
+
+    private long sum(int from, int length) {
+        long total = 0;
+        for (int i = from; i < from + length; i++) {
+            total += counters[i];
+        }
+        return total;
+    }
+
+    // Adds the counters of other, which must have the same shape.
+    public void add(ContentionProfile other) {
+        for (int i = PAD; i < counters.length - PAD; i++) {
+            counters[i] += other.counters[i];
+        }
+    }
+
+    public void clear() {
+        for (int i = PAD; i < counters.length - PAD; i++) {
+            counters[i] = 0;
+        }
+    }
+
+    // Sum of the given profiles, which must all have the same shape, or null if there are none.
+    public static ContentionProfile sum(ContentionProfile[] profiles) {
+        if (profiles.length == 0 || profiles[0] == null) {
+            return null;
+        }
+        ContentionProfile total = new ContentionProfile(profiles[0].levels, profiles[0].maxKey, profiles[0].buckets);
+        for (ContentionProfile profile : profiles) {
+            total.add(profile);
+        }
+        return total;
+    }
+
+    /* CSV columns written by csvColumns() */
+    public static final String CSV_HEADER =
+            "cas_failures_per_op,find_retries_per_op,helping_snips_per_op,traversed_per_op,"
+            + "cas_failures_by_level,traversed_by_level,cas_failure_heatmap";
+
+    // The counters as CSV columns: totals per operation, then the per-level counts and the
+    // heatmap as ';'-separated lists, from the bottom level and the lowest keys up.
+    public String csvColumns(long operations) {
+        double ops = Math.max(operations, 1);
+        StringBuilder columns = new StringBuilder();
+        columns.append(String.format("%.4f,%.4f,%.4f,%.2f,",
+                casFailures() / ops, retries() / ops, snips() / ops, traversed() / ops));
+        appendList(columns, CAS_FAILURES, levels);
+        columns.append(',');
+        appendList(columns, traversed, levels);
+        columns.append(',');
+        appendList(columns, heatmap, buckets);
+        return columns.toString();
+    }
+
+    private void appendList(StringBuilder out, int from, int length) {
+        for (int i = from; i < from + length; i++) {
+            if (i > from) {
+                out.append(';');
+            }
+            out.append(counters[i]);
+        }
+    }
+}
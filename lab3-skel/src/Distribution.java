@@ -1,4 +1,5 @@
 import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.Arrays;
 
 public interface Distribution {
@@ -30,10 +31,14 @@ public interface Distribution {
                 }
         }
 
+        // Alias method of Walker and Vose: one column per outcome holds that outcome up to its
+        // threshold and another one, its alias, above it, so next() picks a column and compares
+        // once. The thresholds are integers out of the total weight, so the probabilities are exact.
         public static class Discrete implements Distribution {
                 private final int[] prob;
                 private final int seed, max;
-                private final Random prng;
+                private final int[] threshold, alias;
+                private final SplittableRandom prng;
 
                 public Discrete(int seed, int[] prob) {
                         int max = 0;
@@ -42,18 +47,50 @@ public interface Distribution {
                         this.max = max;
                         this.prob = Arrays.copyOf(prob, prob.length);
                         this.seed = seed;
-                        this.prng = new Random(seed);
+                        this.prng = new SplittableRandom(seed);
+
+                        // Column i holds weight n * prob[i] out of n * max; fill the light columns
+                        // up to max from the heavy ones
+                        int n = prob.length;
+                        long[] scaled = new long[n];
+                        int[] small = new int[n], large = new int[n];
+                        int smalls = 0, larges = 0;
+                        threshold = new int[n];
+                        alias = new int[n];
+                        for (int i = 0; i < n; ++i) {
+                                scaled[i] = (long) prob[i] * n;
+                                if (scaled[i] < max)
+                                        small[smalls++] = i;
+                                else
+                                        large[larges++] = i;
+                        }
+                        while (smalls > 0 && larges > 0) {
+                                int light = small[--smalls];
+                                int heavy = large[--larges];
+                                threshold[light] = (int) scaled[light];
+                                alias[light] = heavy;
+                                scaled[heavy] -= max - scaled[light];
+                                if (scaled[heavy] < max)
+                                        small[smalls++] = heavy;
+                                else
+                                        large[larges++] = heavy;
+                        }
+                        // What is left is full, up to rounding
+                        while (larges > 0) {
+                                int i = large[--larges];
+                                threshold[i] = max;
+                                alias[i] = i;
+                        }
+                        while (smalls > 0) {
+                                int i = small[--smalls];
+                                threshold[i] = max;
+                                alias[i] = i;
+                        }
                 }
 
                 public int next() {
-                        int p = prng.nextInt(max);
-                        for (int i = 0; i < prob.length; ++i) {
-                                if (p < prob[i])
-                                        return i;
-                                p -= prob[i];
-                        }
-                        // Should never get here.
-                        return -1;
+                        int i = prng.nextInt(threshold.length);
+                        return prng.nextInt(max) < threshold[i] ? i : alias[i];
                 }
 
                 public Distribution copy() {
@@ -94,4 +131,194 @@ public interface Distribution {
                         return new Normal(seed, samples, min, max);
                 }
         }
+
+        /* Exponent of "Zipf", and hot operation and key percentages and draws per shift of "Hotspot" and "SlidingHotspot" */
+        public static final double ZIPF_EXPONENT = 0.99;
+        public static final int HOT_OPS = 90, HOT_KEYS = 10, SHIFT_EVERY = 10;
+
+        // The skewed and time-varying distributions over [min, max) by name, with optional parameters
+        // after colons: Zipf[:exponent], Hotspot[:hot ops %:hot keys %], Monotonic, and
+        // SlidingHotspot[:hot ops %:hot keys %:draws per shift]. Returns null for any other name.
+        public static Distribution get(String spec, int seed, int min, int max) {
+                String[] parts = spec.split(":");
+                try {
+                        switch (parts[0]) {
+                        case "Zipf":
+                                if (parts.length > 2)
+                                        return null;
+                                double exponent = parts.length > 1 ? Double.parseDouble(parts[1]) : ZIPF_EXPONENT;
+                                return new Zipf(seed, min, max, exponent);
+                        case "Hotspot":
+                        case "SlidingHotspot":
+                                boolean sliding = parts[0].equals("SlidingHotspot");
+                                if (parts.length != 1 && parts.length != (sliding ? 4 : 3))
+                                        return null;
+                                int hotOps = parts.length > 1 ? Integer.parseInt(parts[1]) : HOT_OPS;
+                                int hotKeys = parts.length > 1 ? Integer.parseInt(parts[2]) : HOT_KEYS;
+                                int shiftEvery = !sliding ? 0 : parts.length > 1 ? Integer.parseInt(parts[3]) : SHIFT_EVERY;
+                                return new Hotspot(seed, min, max, hotOps / 100.0, hotKeys / 100.0, shiftEvery);
+                        case "Monotonic":
+                                return parts.length == 1 ? new Monotonic(seed, min, max) : null;
+                        default:
+                                return null;
+                        }
+                } catch (IllegalArgumentException e) {
+                        return null;
+                }
+        }
+
+        // Zipf's law over [min, max): min + k - 1 with probability proportional to 1 / k^exponent.
+        // Sampled by rejection-inversion (Hormann and Derflinger, 1996): invert the integral H of
+        // the density h(x) = 1 / x^exponent at a uniform point and accept the rounded rank k if the
+        // point falls within the area of k, which takes about one draw for any exponent and range.
+        public static class Zipf implements Distribution {
+                private final int min, max, seed;
+                private final double exponent;
+                private final double hIntegralX1, hIntegralElements, squeeze;
+                private final SplittableRandom prng;
+
+                public Zipf(int seed, int min, int max, double exponent) {
+                        if (exponent <= 0 || max <= min)
+                                throw new IllegalArgumentException("Zipf needs exponent > 0 and max > min");
+                        this.min = min;
+                        this.max = max;
+                        this.seed = seed;
+                        this.exponent = exponent;
+                        this.prng = new SplittableRandom(seed);
+                        hIntegralX1 = hIntegral(1.5) - 1;
+                        hIntegralElements = hIntegral(max - min + 0.5);
+                        squeeze = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+                }
+
+                public int next() {
+                        int elements = max - min;
+                        while (true) {
+                                double u = hIntegralElements + prng.nextDouble() * (hIntegralX1 - hIntegralElements);
+                                double x = hIntegralInverse(u);
+                                int k = (int) (x + 0.5);
+                                if (k < 1)
+                                        k = 1;
+                                else if (k > elements)
+                                        k = elements;
+                                if (k - x <= squeeze || u >= hIntegral(k + 0.5) - h(k))
+                                        return min + k - 1;
+                        }
+                }
+
+                /* H(x) = (x^(1 - exponent) - 1) / (1 - exponent), log(x) at exponent 1 */
+                private double hIntegral(double x) {
+                        double logX = Math.log(x);
+                        return helper2((1 - exponent) * logX) * logX;
+                }
+
+                private double h(double x) {
+                        return Math.exp(-exponent * Math.log(x));
+                }
+
+                private double hIntegralInverse(double x) {
+                        double t = x * (1 - exponent);
+                        if (t < -1)
+                                t = -1;
+                        return Math.exp(helper1(t) * x);
+                }
+
+                /* log(1 + x) / x, accurate near 0 */
+                private static double helper1(double x) {
+                        if (Math.abs(x) > 1e-8)
+                                return Math.log1p(x) / x;
+                        return 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+                }
+
+                /* (exp(x) - 1) / x, accurate near 0 */
+                private static double helper2(double x) {
+                        if (Math.abs(x) > 1e-8)
+                                return Math.expm1(x) / x;
+                        return 1 + x * 0.5 * (1 + x * (1.0 / 3) * (1 + 0.25 * x));
+                }
+
+                public Distribution copy() {
+                        return copy(this.seed);
+                }
+
+                public Distribution copy(int seed) {
+                        return new Zipf(seed, min, max, exponent);
+                }
+        }
+
+        // A fraction hotOps of the draws is uniform over a window of a fraction hotKeys of [min, max),
+        // the rest uniform over the other keys. The window starts at min; with shiftEvery > 0 it
+        // moves up one key every shiftEvery draws, wrapping around, so the hot set changes over a run.
+        public static class Hotspot implements Distribution {
+                private final int min, max, seed, shiftEvery;
+                private final double hotOps, hotKeys;
+                /* Keys in the window, at least 1 and less than max - min */
+                private final int window;
+                private final SplittableRandom prng;
+                /* Start of the window relative to min, and draws until it moves */
+                private int offset = 0;
+                private int untilShift;
+
+                public Hotspot(int seed, int min, int max, double hotOps, double hotKeys, int shiftEvery) {
+                        if (max - min < 2 || hotOps < 0 || hotOps > 1 || hotKeys <= 0 || hotKeys >= 1 || shiftEvery < 0)
+                                throw new IllegalArgumentException("Hotspot needs two keys and fractions in range");
+                        this.min = min;
+                        this.max = max;
+                        this.seed = seed;
+                        this.hotOps = hotOps;
+                        this.hotKeys = hotKeys;
+                        this.shiftEvery = shiftEvery;
+                        this.window = Math.max(1, Math.min(max - min - 1, (int) ((max - min) * hotKeys)));
+                        this.untilShift = shiftEvery;
+                        this.prng = new SplittableRandom(seed);
+                }
+
+                public int next() {
+                        int range = max - min;
+                        int key;
+                        if (prng.nextDouble() < hotOps)
+                                key = offset + prng.nextInt(window);
+                        else
+                                key = offset + window + prng.nextInt(range - window);
+                        if (shiftEvery > 0 && --untilShift == 0) {
+                                untilShift = shiftEvery;
+                                offset = (offset + 1 == range) ? 0 : offset + 1;
+                        }
+                        return min + (key < range ? key : key - range);
+                }
+
+                public Distribution copy() {
+                        return copy(this.seed);
+                }
+
+                public Distribution copy(int seed) {
+                        return new Hotspot(seed, min, max, hotOps, hotKeys, shiftEvery);
+                }
+        }
+
+        // Consecutive keys from a start drawn from the seed, wrapping from max - 1 back to min.
+        public static class Monotonic implements Distribution {
+                private final int min, max, seed;
+                private int next;
+
+                public Monotonic(int seed, int min, int max) {
+                        this.min = min;
+                        this.max = max;
+                        this.seed = seed;
+                        this.next = min + new SplittableRandom(seed).nextInt(max - min);
+                }
+
+                public int next() {
+                        int key = next;
+                        next = (key + 1 == max) ? min : key + 1;
+                        return key;
+                }
+
+                public Distribution copy() {
+                        return copy(this.seed);
+                }
+
+                public Distribution copy(int seed) {
+                        return new Monotonic(seed, min, max);
+                }
+        }
 }
@@ -0,0 +1,62 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Epoch-based reclamation (Fraser, "Practical lock-freedom", 2004).
+// Threads announce the global epoch while they are inside an operation. An object retired at
+// epoch e is unreachable for every operation that starts later, and once the global epoch has
+// reached e + 2 every operation that might still hold a reference to it has finished, so it can
+// be reused. The epoch only advances when every active thread has announced the current one.
+public class EpochManager {
+    /* Announcement of a thread that is not inside an operation */
+    private static final long INACTIVE = -1;
+    /* Announcements are spaced 128 bytes apart so threads do not share cache lines */
+    private static final int STRIDE = 16;
+
+    private final AtomicLong epoch = new AtomicLong(0);
+    private final AtomicLongArray announce;
+    private final int threads;
+
+    public EpochManager(int threads) {
+        this.threads = threads;
+        announce = new AtomicLongArray(threads * STRIDE);
+        for (int i = 0; i < threads; i++) {
+            announce.set(i * STRIDE, INACTIVE);
+        }
+    }
+
+    // Called by thread `threadId` before it reads any shared node.
+    public void enter(int threadId) {
+        long e;
+        do {
+            e = epoch.get();
+            announce.set(threadId * STRIDE, e);
+        } while (epoch.get() != e);
+    }
+
+    // Called by thread `threadId` once it holds no more references to shared nodes.
+    public void exit(int threadId) {
+        announce.set(threadId * STRIDE, INACTIVE);
+    }
+
+    public long current() {
+        return epoch.get();
+    }
+
+    // Whether an object retired at `retireEpoch` can no longer be referenced by any thread.
+    public boolean isSafe(long retireEpoch) {
+        return retireEpoch + 2 <= epoch.get();
+    }
+
+    // Advances the global epoch if every active thread has announced it. Returns the epoch after the attempt.
+    public long tryAdvance() {
+        long e = epoch.get();
+        for (int i = 0; i < threads; i++) {
+            long a = announce.get(i * STRIDE);
+            if (a != INACTIVE && a != e) {
+                return e;
+            }
+        }
+        epoch.compareAndSet(e, e + 1);
+        return epoch.get();
+    }
+}
@@ -1,197 +1,998 @@
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 
+// Runs the operation mix of Main over a sweep of thread counts, distributions and mixes, and writes
+// the average time of the runs and more per configuration to <system>_performance.csv:
+//
+//     java Experiment <system> <setType>[,<setType>...]
+//
+// A set type is a getSet() name, optionally followed by ":" and the Clock of its linearization
+// points, e.g. BufferedLocalLog:Ticket. With a comma-separated list of sets, each configuration
+// runs every set in turn and the rows start with a set column, so one file compares them.
+// The sweep and the runs are changed by system properties:
+//   -Ddistributions=<D>,...  key distributions, Normal,Uniform by default, any of Main's <D>
+//   -Dmixes=<A>:<R>:<C>,...  operation mixes, 1:1:8,1:1:0 by default
+//   -DmaxValue=<V>           keys are drawn from [0, V), 100000 by default
+//   -Dout=<file>             the CSV file to write instead of <system>_performance.csv
+//   -Dtrace=memory|<dir>     replay pre-generated traces, see Trace.fromProperty(); adds the time
+//                            taken to build the trace and the cost of one key draw
+//   -Dfill=true              add every even key before each run, so half of the lookups hit
+//   -Dfootprint=true         fill a new set once and add its heap and off-heap bytes per key;
+//                            with a large -DmaxValue, give the JVM a heap and
+//                            -XX:MaxDirectMemorySize large enough for the set
+//   -Dstream=<entries>       validate columnar logs while the run goes, publishing segments of
+//                            that many entries, see ColumnarLog.stream()
+//   -Dduration=<ms>          fixed-duration runs, see runTimed(); the throughput of every
+//                            -Dinterval=<ms> (default 100) goes to <file>_intervals.csv
+//   -Dbatch=<size>           sorted batches through runBatched(), LockFreeSkipList sets only
+//   -Dlatency=true           time every operation, see runRecorded(), and add its percentiles
+// -Dduration, -Dbatch and -Dlatency are exclusive.
 public class Experiment {
 
+    // Number of key-range buckets in the CAS failure heatmap of profiled sets
+    private static final int HEATMAP_BUCKETS = 16;
+
+    // Operation and result of each latency histogram of runRecorded(), see latencyIndex()
+    public static final String[] LATENCY_LABELS = {"add,true", "add,false", "remove,true", "remove,false",
+                                                   "contains,true", "contains,false"};
+
+    // Options of main(), see the class comment
+    private static final int MAX_VALUE = Integer.getInteger("maxValue", 100_000);
+    private static final boolean FILL = Boolean.getBoolean("fill");
+    private static final boolean FOOTPRINT = Boolean.getBoolean("footprint");
+    private static final int SEGMENT_SIZE = Integer.getInteger("stream", 0);
+    private static final Long DURATION = Long.getLong("duration");
+    private static final long INTERVAL = Long.getLong("interval", 100);
+    private static final int BATCH = Integer.getInteger("batch", 0);
+    private static final boolean LATENCY = Boolean.getBoolean("latency");
+
+    // Keeps the key draws timed by sampleCost() from being optimised away
+    private static volatile long sink;
+
+    // Per-thread allocation counter of the HotSpot MXBean, null if the JVM does not provide one
+    private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN = allocationBean();
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) bean;
+            if (hotspotBean.isThreadAllocatedMemorySupported()) {
+                hotspotBean.setThreadAllocatedMemoryEnabled(true);
+                return hotspotBean;
+            }
+        }
+        return null;
+    }
+
     public static long run(int threads, int opsPerThread, LockFreeSet<Integer> list, Distribution ops, Distribution values) {
-        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        return run(threads, opsPerThread, list, ops, values, null);
+    }
 
+    // As run() above. If allocatedBytes is non-null, allocatedBytes[0] is set to the number of bytes
+    // allocated by all workers inside their operation loops, or -1 if the JVM cannot count them.
+    public static long run(int threads, int opsPerThread, LockFreeSet<Integer> list, Distribution ops, Distribution values, long[] allocatedBytes) {
         Task[] tasks = new Task[threads];
         for (int i = 0; i < tasks.length; ++i) {
             tasks[i] = new Task(i, opsPerThread, list, ops.copy(i), values.copy(-i));
         }
+        return invoke(tasks, allocatedBytes);
+    }
+
+    // As run() above, but each thread replays its operations and keys from trace, generated before
+    // the run, instead of drawing them from the distributions while it is timed.
+    public static long run(int threads, LockFreeSet<Integer> list, Trace trace) {
+        return run(threads, list, trace, null);
+    }
+
+    public static long run(int threads, LockFreeSet<Integer> list, Trace trace, long[] allocatedBytes) {
+        Task[] tasks = new Task[threads];
+        for (int i = 0; i < tasks.length; ++i) {
+            tasks[i] = new Task(i, list, trace);
+        }
+        return invoke(tasks, allocatedBytes);
+    }
+
+    // As run() above, but each operation drawn from ops is applied to batchSize sorted values at once:
+    // adds and removes go through addAll()/removeAll(), contains is issued per value.
+    public static long runBatched(int threads, int opsPerThread, int batchSize, LockFreeSkipList<Integer> list, Distribution ops, Distribution values) {
+        Task[] tasks = new Task[threads];
+        for (int i = 0; i < tasks.length; ++i) {
+            tasks[i] = new Task(i, opsPerThread, batchSize, list, ops.copy(i), values.copy(-i));
+        }
+        return invoke(tasks, null);
+    }
+
+    // As run() above, also timing every operation: the latencies of all threads are added to
+    // histograms, indexed by latencyIndex() of the operation and its result. With a trace the
+    // operations are replayed from it, otherwise drawn from ops and values.
+    public static long runRecorded(int threads, int opsPerThread, LockFreeSet<Integer> list, Distribution ops, Distribution values, Trace trace, LatencyHistogram[] histograms) {
+        Task[] tasks = new Task[threads];
+        for (int i = 0; i < tasks.length; ++i) {
+            tasks[i] = (trace != null) ? new Task(i, list, trace) : new Task(i, opsPerThread, list, ops.copy(i), values.copy(-i));
+            tasks[i].recordLatencies();
+        }
+        long time = invoke(tasks, null);
+        for (Task task : tasks) {
+            for (int k = 0; k < histograms.length; ++k) {
+                histograms[k].add(task.latencies[k]);
+            }
+        }
+        return time;
+    }
+
+    // Histograms of runRecorded() by operation and result, in the order of LATENCY_LABELS
+    public static LatencyHistogram[] newLatencyHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[LATENCY_LABELS.length];
+        for (int k = 0; k < histograms.length; ++k) {
+            histograms[k] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    // Index of op (0 add, 1 remove, 2 contains) returning ret in the histograms of runRecorded()
+    public static int latencyIndex(int op, boolean ret) {
+        return op * 2 + (ret ? 0 : 1);
+    }
+
+    // Runs every thread for durationMillis instead of a fixed number of operations. The workers
+    // wait at a start gate, so thread start-up is not measured, and publish their completed
+    // operations to padded per-thread counters that are summed every intervalMillis.
+    public static TimedResult runTimed(int threads, long durationMillis, long intervalMillis, LockFreeSet<Integer> list, Distribution ops, Distribution values) {
+        return runTimed(threads, durationMillis, intervalMillis, list, ops, values, null);
+    }
+
+    // As runTimed() above; with a trace, each thread replays its operations from the start again
+    // whenever it reaches their end.
+    public static TimedResult runTimed(int threads, long durationMillis, long intervalMillis, LockFreeSet<Integer> list, Distribution ops, Distribution values, Trace trace) {
+        if (durationMillis <= 0 || intervalMillis <= 0) {
+            throw new IllegalArgumentException("Duration and interval must be > 0 ms");
+        }
+        TimedTask[] tasks = new TimedTask[threads];
+        AtomicLongArray counters = new AtomicLongArray(threads * TimedTask.STRIDE);
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        for (int i = 0; i < tasks.length; ++i) {
+            tasks[i] = (trace != null) ? new TimedTask(i, list, null, null, trace, counters, ready, gate, stop)
+                    : new TimedTask(i, list, ops.copy(i), values.copy(-i), null, counters, ready, gate, stop);
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for (TimedTask task : tasks) {
+                futures.add(executorService.submit(task));
+            }
+            ready.await();
+
+            int intervals = (int) ((durationMillis + intervalMillis - 1) / intervalMillis);
+            long[] sampleTimes = new long[intervals];
+            long[] sampleOps = new long[intervals];
+            long startTime = System.nanoTime();
+            gate.countDown();
+            for (int k = 0; k < intervals; ++k) {
+                long deadline = startTime + Math.min((k + 1) * intervalMillis, durationMillis) * 1_000_000;
+                for (long left = deadline - System.nanoTime(); left > 0; left = deadline - System.nanoTime()) {
+                    LockSupport.parkNanos(left);
+                }
+                if (k == intervals - 1) {
+                    stop.set(true);
+                }
+                sampleTimes[k] = System.nanoTime() - startTime;
+                for (int t = 0; t < threads; ++t) {
+                    sampleOps[k] += counters.get(t * TimedTask.STRIDE);
+                }
+            }
+            long stopTime = startTime + sampleTimes[intervals - 1];
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    stop.set(true);
+                    throw new IllegalStateException("Worker thread failed", e.getCause());
+                }
+            }
+            long[] threadOps = new long[threads];
+            long[] stopLag = new long[threads];
+            for (int t = 0; t < threads; ++t) {
+                threadOps[t] = tasks[t].completed;
+                stopLag[t] = tasks[t].endTime - stopTime;
+            }
+            return new TimedResult(sampleTimes, sampleOps, threadOps, stopLag);
+        } catch (InterruptedException e) {
+            stop.set(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while timing the workers", e);
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private static long invoke(Task[] tasks, long[] allocatedBytes) {
+        ExecutorService executorService = Executors.newFixedThreadPool(tasks.length);
 
         try {
             long startTime = System.nanoTime();
-            executorService.invokeAll(Arrays.asList(tasks));
+            List<Future<Void>> futures = executorService.invokeAll(Arrays.asList(tasks));
             long endTime = System.nanoTime();
             executorService.shutdown();
+            // A worker that threw did not do its share of the operations, so the time is not a result
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Worker thread failed", e.getCause());
+                }
+            }
+            if (allocatedBytes != null) {
+                allocatedBytes[0] = 0;
+                for (Task task : tasks) {
+                    allocatedBytes[0] = (task.allocatedBytes < 0) ? -1 : allocatedBytes[0] + task.allocatedBytes;
+                    if (allocatedBytes[0] < 0) break;
+                }
+            }
             return endTime - startTime;
-        } catch (Exception e) {
+        } catch (InterruptedException e) {
             e.printStackTrace();
         }
         return -1;
     }
 
+    // Applies op (0 add, 1 remove, 2 contains) to val for threadId and returns its result. Goes
+    // through the primitive overloads of intSet if it is non-null, so that val is not boxed.
+    private static boolean apply(LockFreeSet<Integer> set, IntLockFreeSet intSet, int threadId, int op, int val) {
+        switch (op) {
+            case 0:
+                return (intSet != null) ? intSet.add(threadId, val) : set.add(threadId, val);
+            case 1:
+                return (intSet != null) ? intSet.remove(threadId, val) : set.remove(threadId, val);
+            case 2:
+                return (intSet != null) ? intSet.contains(threadId, val) : set.contains(threadId, val);
+            default:
+                return false;
+        }
+    }
+
     public static class Task implements Callable<Void> {
         private final int threadId;
         private final LockFreeSet<Integer> set;
+        // Non-null when the set has primitive overloads, so the loop below does not box
+        private final IntLockFreeSet intSet;
         private final Distribution ops, values;
         private final int opsPerThread;
+        // Number of values per operation; above 1 the set is driven through its batch operations
+        private final int batchSize;
+        // The set of a batched task, which has the batch operations, or null
+        private final LockFreeSkipList<Integer> batchList;
+        // Pre-generated operations and keys of this thread, or null to draw them from ops and values
+        private final byte[] traceOps;
+        private final int[] traceKeys;
+        // Latency of every operation by latencyIndex(), or null if operations are not timed
+        private LatencyHistogram[] latencies = null;
+        // Bytes allocated by this thread during call(), or -1 if not measurable
+        private long allocatedBytes = -1;
 
         public Task(int threadId, int opsPerThread, LockFreeSet<Integer> set, Distribution ops, Distribution values) {
+            this(threadId, opsPerThread, 1, set, null, ops, values);
+        }
+
+        // Only LockFreeSkipList has the addAll() and removeAll() that batches go through.
+        public Task(int threadId, int opsPerThread, int batchSize, LockFreeSkipList<Integer> list, Distribution ops, Distribution values) {
+            this(threadId, opsPerThread, batchSize, list, list, ops, values);
+        }
+
+        private Task(int threadId, int opsPerThread, int batchSize, LockFreeSet<Integer> set, LockFreeSkipList<Integer> batchList,
+                     Distribution ops, Distribution values) {
             this.threadId = threadId;
+            this.batchSize = batchSize;
+            this.batchList = batchList;
             this.set = set;
+            this.intSet = (set instanceof IntLockFreeSet) ? (IntLockFreeSet) set : null;
             this.ops = ops;
             this.values = values;
             this.opsPerThread = opsPerThread;
+            this.traceOps = null;
+            this.traceKeys = null;
+        }
+
+        public Task(int threadId, LockFreeSet<Integer> set, Trace trace) {
+            this.threadId = threadId;
+            this.batchSize = 1;
+            this.batchList = null;
+            this.set = set;
+            this.intSet = (set instanceof IntLockFreeSet) ? (IntLockFreeSet) set : null;
+            this.ops = null;
+            this.values = null;
+            this.opsPerThread = trace.opsPerThread();
+            this.traceOps = trace.ops(threadId);
+            this.traceKeys = trace.keys(threadId);
+        }
+
+        // Times every operation of call() into latencies; not for batched tasks.
+        void recordLatencies() {
+            latencies = newLatencyHistograms();
         }
 
         public Void call() throws Exception {
+            long before = allocatedBytesOfCurrentThread();
+            if (batchSize > 1) {
+                runBatched();
+            } else if (latencies != null) {
+                runRecorded();
+            } else if (traceOps != null) {
+                runTrace();
+            } else {
+                runDrawn();
+            }
+            long after = allocatedBytesOfCurrentThread();
+            allocatedBytes = (before < 0 || after < 0) ? -1 : after - before;
+            return null;
+        }
+
+        private static long allocatedBytesOfCurrentThread() {
+            return (ALLOCATION_BEAN == null) ? -1 : ALLOCATION_BEAN.getCurrentThreadAllocatedBytes();
+        }
+
+        private void runDrawn() {
             for (int i = 0; i < opsPerThread; ++i) {
                 int val = values.next();
                 int op = ops.next();
+                apply(set, intSet, threadId, op, val);
+            }
+        }
+
+        private void runTrace() {
+            for (int i = 0; i < opsPerThread; ++i) {
+                apply(set, intSet, threadId, traceOps[i], traceKeys[i]);
+            }
+        }
+
+        // As the loops above, with System.nanoTime() around each operation
+        private void runRecorded() {
+            for (int i = 0; i < opsPerThread; ++i) {
+                int val;
+                int op;
+                if (traceOps != null) {
+                    val = traceKeys[i];
+                    op = traceOps[i];
+                } else {
+                    val = values.next();
+                    op = ops.next();
+                }
+                long start = System.nanoTime();
+                boolean ret = apply(set, intSet, threadId, op, val);
+                long end = System.nanoTime();
+                latencies[latencyIndex(op, ret)].record(end - start);
+            }
+        }
+
+        // opsPerThread values are issued in opsPerThread / batchSize sorted batches
+        private void runBatched() {
+            LockFreeSkipList<Integer> list = batchList;
+            int[] keys = new int[batchSize];
+            Integer[] batch = new Integer[batchSize];
+            for (int i = 0; i + batchSize <= opsPerThread; i += batchSize) {
+                for (int j = 0; j < batchSize; ++j) {
+                    keys[j] = values.next();
+                }
+                Arrays.sort(keys);
+                for (int j = 0; j < batchSize; ++j) {
+                    batch[j] = keys[j];
+                }
+                int op = ops.next();
                 switch (op) {
                     case 0:
-                        set.add(threadId, val);
+                        list.addAll(threadId, batch);
                         break;
                     case 1:
-                        set.remove(threadId, val);
+                        list.removeAll(threadId, batch);
                         break;
                     case 2:
-                        set.contains(threadId, val);
+                        for (Integer key : batch) {
+                            list.contains(threadId, key);
+                        }
                         break;
                 }
             }
+        }
+    }
+
+    // Worker of runTimed(): applies operations until stop is set, publishing its count every
+    // CHECK_EVERY operations.
+    private static class TimedTask implements Callable<Void> {
+        /* Longs between two threads' counters, 128 bytes */
+        static final int STRIDE = 16;
+        /* Operations between two checks of stop */
+        static final int CHECK_EVERY = 64;
+
+        private final int threadId;
+        private final LockFreeSet<Integer> set;
+        private final IntLockFreeSet intSet;
+        private final Distribution ops, values;
+        private final byte[] traceOps;
+        private final int[] traceKeys;
+        private final AtomicLongArray counters;
+        private final CountDownLatch ready, gate;
+        private final AtomicBoolean stop;
+        // Operations completed, and System.nanoTime() when the thread saw stop
+        private long completed = 0;
+        private long endTime;
+
+        TimedTask(int threadId, LockFreeSet<Integer> set, Distribution ops, Distribution values, Trace trace,
+                  AtomicLongArray counters, CountDownLatch ready, CountDownLatch gate, AtomicBoolean stop) {
+            this.threadId = threadId;
+            this.set = set;
+            this.intSet = (set instanceof IntLockFreeSet) ? (IntLockFreeSet) set : null;
+            this.ops = ops;
+            this.values = values;
+            this.traceOps = (trace != null) ? trace.ops(threadId) : null;
+            this.traceKeys = (trace != null) ? trace.keys(threadId) : null;
+            this.counters = counters;
+            this.ready = ready;
+            this.gate = gate;
+            this.stop = stop;
+        }
+
+        public Void call() throws Exception {
+            ready.countDown();
+            gate.await();
+            int next = 0;
+            long done = 0;
+            while (!stop.get()) {
+                for (int i = 0; i < CHECK_EVERY; ++i) {
+                    int val;
+                    int op;
+                    if (traceOps != null) {
+                        val = traceKeys[next];
+                        op = traceOps[next];
+                        next = (next + 1 == traceOps.length) ? 0 : next + 1;
+                    } else {
+                        val = values.next();
+                        op = ops.next();
+                    }
+                    apply(set, intSet, threadId, op, val);
+                }
+                done += CHECK_EVERY;
+                counters.lazySet(threadId * STRIDE, done);
+            }
+            endTime = System.nanoTime();
+            completed = done;
             return null;
         }
     }
 
+    // Outcome of runTimed(). Sample k was taken sampleTimes[k] ns after the start gate opened, when
+    // the threads had published sampleOps[k] operations in total; the last one is at the stop.
+    public static class TimedResult {
+        final long[] sampleTimes;
+        final long[] sampleOps;
+        // Operations completed by each thread, and how long after the stop each one noticed it
+        final long[] threadOps;
+        final long[] stopLag;
+
+        TimedResult(long[] sampleTimes, long[] sampleOps, long[] threadOps, long[] stopLag) {
+            this.sampleTimes = sampleTimes;
+            this.sampleOps = sampleOps;
+            this.threadOps = threadOps;
+            this.stopLag = stopLag;
+        }
+
+        public int intervals() {
+            return sampleTimes.length;
+        }
+
+        // Operations per second between sample k - 1, or the start, and sample k
+        public double throughput(int k) {
+            long ops = sampleOps[k] - (k > 0 ? sampleOps[k - 1] : 0);
+            long time = sampleTimes[k] - (k > 0 ? sampleTimes[k - 1] : 0);
+            return ops * 1e9 / time;
+        }
+
+        // Operations per second from the start gate until the last thread noticed the stop. Counts
+        // the operations every thread completed, including those still in flight at the last sample.
+        public double totalThroughput() {
+            long ops = Arrays.stream(threadOps).sum();
+            long time = sampleTimes[sampleTimes.length - 1] + Math.max(maxStopLag(), 0);
+            return ops * 1e9 / time;
+        }
+
+        // Coefficient of variation of the operations completed per thread: 0 if all threads
+        // progressed equally, larger the more some of them straggled
+        public double threadOpsSpread() {
+            double[] stats = stats(threadOps);
+            return stats[0] > 0 ? stats[1] / stats[0] : 0;
+        }
+
+        public long minThreadOps() {
+            return Arrays.stream(threadOps).min().orElse(0);
+        }
+
+        public long maxThreadOps() {
+            return Arrays.stream(threadOps).max().orElse(0);
+        }
+
+        public long maxStopLag() {
+            return Arrays.stream(stopLag).max().orElse(0);
+        }
+    }
+
+    // One warmup or measurement run of measure()
     private static class RunResult {
         final long time;
+        // Operations completed by all threads
+        final long operations;
         final int discrepancies;
+        // Time taken by Log.validate(), or with -Dstream by ColumnarLog.endStream(), after the run
+        final long validationTime;
+        // Bytes allocated per operation by the workers, negative if not measurable
+        final double bytesPerOp;
+        // Contention counters of the run, null if the set is not profiled
+        final ContentionProfile profile;
+        // With -Dstream, entries that arrived behind the validator's watermark; the most log
+        // entries held at once
+        final long lateEntries;
+        final long peakLogEntries;
+        // Intervals and per-thread progress of the run with -Dduration, otherwise null
+        final TimedResult timed;
 
-        public RunResult(long itime, int idisc) {
+        public RunResult(long itime, long iops, int idisc, long ivalidation, double ibytes, ContentionProfile iprofile,
+                         long ilate, long ipeak, TimedResult itimed) {
             time = itime;
+            operations = iops;
             discrepancies = idisc;
+            validationTime = ivalidation;
+            bytesPerOp = ibytes;
+            profile = iprofile;
+            lateEntries = ilate;
+            peakLogEntries = ipeak;
+            timed = itimed;
         }
+
+        // Operations per second of all threads
+        double throughput() {
+            return (timed != null) ? timed.totalThroughput() : operations * 1e9 / time;
+        }
+    }
+
+    // Outcome of measure() for one set and configuration
+    private static class Measurement {
+        RunResult[] results;
+        // Merged histograms of the measurement runs with -Dlatency, otherwise null
+        LatencyHistogram[] histograms;
+        // GC time in ms and number of collections over the measurement runs
+        long gcTime;
+        long gcCount;
+        // With -Dtrace, the time taken to generate or read the trace and the ns per key drawn
+        // by one thread, which the trace takes out of the timed runs
+        long generationTime;
+        double nsPerSample;
+        // With -Dfootprint, {fill time, heap bytes per key, off-heap bytes per key}, see footprint()
+        double[] footprint;
     }
-    
+
     public static void main(String[] args) {
         if (args.length != 2) {
-            System.err.println("Usage: java Experiment <system> <setType>");
+            System.err.println("Usage: java Experiment <system> <setType>[,<setType>...]");
             System.exit(1);
         }
 
         String system = args[0];
-        String setType = args[1];
-        
+        String[] setTypes = args[1].split(",");
+
         if (!system.equals("local") && !system.equals("pdc")) {
             System.err.println("ERROR: system must be either 'local' or 'pdc'");
             System.exit(1);
         }
 
-        String[] valid_types = {"Default", "Locked", "LocalLog", "GlobalLog", "CustomLog"};
-        if (!Arrays.asList(valid_types).contains(setType)) {
-            System.err.println("ERROR: must have valid set type");
+        if ((DURATION != null ? 1 : 0) + (BATCH > 0 ? 1 : 0) + (LATENCY ? 1 : 0) > 1
+                || (BATCH > 0 && System.getProperty("trace") != null)) {
+            System.err.println("ERROR: -Dduration, -Dbatch and -Dlatency are exclusive, and -Dbatch draws its own keys without -Dtrace");
+            System.exit(1);
+        }
+        if (DURATION != null && (DURATION <= 0 || INTERVAL <= 0)) {
+            System.err.println("ERROR: -Dduration and -Dinterval must be > 0 ms");
             System.exit(1);
         }
 
+        // A set of each type, to find out whether they log and count contention; every run builds its own
+        boolean logged = false;
+        boolean profiled = false;
+        for (String setType : setTypes) {
+            LockFreeSet<Integer> probe = newSet(setType, 1, getDistribution("Uniform", MAX_VALUE));
+            if (probe == null) {
+                System.err.println("ERROR: must have valid set type, not " + setType);
+                System.exit(1);
+            }
+            if (BATCH > 0 && !(probe instanceof LockFreeSkipList)) {
+                System.err.println("ERROR: -Dbatch needs a LockFreeSkipList, not " + setType);
+                System.exit(1);
+            }
+            logged |= hasLog(probe);
+            profiled |= enableProfiling(probe, MAX_VALUE);
+        }
+        // Comparing several sets, every row starts with its set
+        boolean compare = setTypes.length > 1;
+
+        // Define test parameters
+        String[] distributions = System.getProperty("distributions", "Normal,Uniform").split(",");
+        String[] mixes = System.getProperty("mixes", "1:1:8,1:1:0").split(",");
+        for (String distribution : distributions) {
+            if (getDistribution(distribution, MAX_VALUE) == null) {
+                System.err.println("ERROR: Unknown distribution " + distribution);
+                System.exit(1);
+            }
+        }
+        for (String mix : mixes) {
+            if (!mix.matches("\\d+:\\d+:\\d+")) {
+                System.err.println("ERROR: Distribution of operations is " + mix + ", should be <adds>:<removes>:<contains>");
+                System.exit(1);
+            }
+        }
+
         System.err.println("Available Processors: " + Runtime.getRuntime().availableProcessors());
-        System.err.println("Running in " + system + " mode with set type: " + setType);
+        System.err.println("Running in " + system + " mode with set type: " + args[1]);
 
         // Define test parameters based on system
         int[] threads;
         int opsPerThread;
-        String outputFile;
-        
+
         if (system.equals("local")) {
             threads = new int[]{1, 2, 4, 8};
             opsPerThread = 100_000;
-            outputFile = "local_performance.csv";
         } else { // pdc
             threads = new int[]{1, 2, 4, 8, 16, 32, 48};
             opsPerThread = 1_000_000;
-            outputFile = "pdc_performance.csv";
         }
+        String outputFile = System.getProperty("out", system + "_performance.csv");
+        // Throughput of every interval of every run with -Dduration
+        String seriesFile = outputFile.replaceFirst("(\\.csv)?$", "_intervals.csv");
 
-        try (PrintWriter writer = new PrintWriter(new FileWriter(outputFile))) {
-            // Write CSV header based on set type
-            if (setType.equals("Default")) {
-                writer.println("threads,distribution,mix,average_time,standard_deviation");
-            } else {
-                writer.println("threads,distribution,mix,average_time,standard_deviation,average_discrepancies");
+        try (PrintWriter writer = new PrintWriter(new FileWriter(outputFile));
+             PrintWriter series = (DURATION != null) ? new PrintWriter(new FileWriter(seriesFile)) : null) {
+            writer.println((compare ? "set," : "") + "threads,distribution,mix," + header(logged, profiled));
+            if (series != null) {
+                series.println("set,threads,distribution,mix,run,interval,time_ms,ops_per_sec");
             }
-            
-            // Define test parameters
-            String[] distributions = {"Normal", "Uniform"};
-            String[] mixes = {"1:1:8", "1:1:0"};
-            
+
             // Process each configuration
             for (String distribution : distributions) {
                 for (String mix : mixes) {
                     for (int threadCount : threads) {
-                        RunResult[] results = runExperiment(threadCount, distribution, mix, setType, opsPerThread);
-                        double[] processed = calculateStatistics(results, setType);
-                        
-                        // Output based on set type
-                        if (setType.equals("Default")) {
-                            writer.printf("%d,%s,%s,%.6f,%.6f%n", 
-                                        threadCount, distribution, mix, processed[0], processed[1]);
-                            System.out.printf("Completed: %d threads, %s distribution, %s mix - Avg: %.6f, StdDev: %.6f%n", 
-                                            threadCount, distribution, mix, processed[0], processed[1]);
-                        } else {
-                            writer.printf("%d,%s,%s,%.6f,%.6f,%.0f%n", 
-                                        threadCount, distribution, mix, processed[0], processed[1], processed[2]);
-                            System.out.printf("Completed: %d threads, %s distribution, %s mix - Avg: %.6f, StdDev: %.6f, Disc: %.0f%n", 
-                                            threadCount, distribution, mix, processed[0], processed[1], processed[2]);
+                        for (String setType : setTypes) {
+                            Measurement m = measure(setType, threadCount, distribution, mix, opsPerThread, series);
+                            double[] time = stats(Arrays.stream(m.results).mapToLong(r -> r.time).toArray());
+                            writer.printf("%s%d,%s,%s,%s%n", compare ? setType + "," : "", threadCount, distribution, mix,
+                                          columns(m, threadCount, logged, profiled));
+                            writer.flush();
+                            System.out.printf("Completed: %s, %d threads, %s distribution, %s mix - Avg: %.6f, StdDev: %.6f, Ops/s: %.0f, Disc: %.1f, Bytes/op: %.2f%n",
+                                              setType, threadCount, distribution, mix, time[0], time[1],
+                                              average(m.results, r -> r.throughput()), average(m.results, r -> r.discrepancies),
+                                              average(m.results, r -> r.bytesPerOp));
                         }
-                        writer.flush();
                     }
                 }
             }
-            
+
             System.out.printf("Results written to %s%n", outputFile);
-            
+
         } catch (IOException e) {
             System.err.printf("ERROR: Could not write to file %s: %s%n", outputFile, e.getMessage());
             System.exit(1);
         }
     }
-    
-    @SuppressWarnings("unused")
-    private static RunResult[] runExperiment(int threads, String distribution, String opsDist, String setName, int opsPerThread) {
-        // Max input value
-        int maxValue = 100_000;
+
+    // CSV columns of main() after the configuration, see columns()
+    private static String header(boolean logged, boolean profiled) {
+        StringBuilder header = new StringBuilder("average_time,standard_deviation");
+        if (logged) {
+            header.append(",average_discrepancies,validation_time");
+        }
+        header.append(",bytes_per_op,ns_per_op,ops_per_second,gc_time_ms,gc_count");
+        if (System.getProperty("trace") != null) {
+            header.append(",generation_time,ns_per_sample");
+        }
+        if (BATCH > 0) {
+            header.append(",batch_size");
+        }
+        if (SEGMENT_SIZE > 0 && logged) {
+            header.append(",late_entries,peak_log_entries");
+        }
+        if (DURATION != null) {
+            header.append(",min_thread_ops,max_thread_ops,thread_ops_cv,max_stop_lag_ns");
+        }
+        if (FOOTPRINT) {
+            header.append(",fill_time,heap_bytes_per_key,offheap_bytes_per_key");
+        }
+        if (LATENCY) {
+            for (String label : LATENCY_LABELS) {
+                String prefix = label.replace(',', '_');
+                header.append(String.format(",%1$s_p50_ns,%1$s_p90_ns,%1$s_p99_ns,%1$s_p999_ns,%1$s_max_ns", prefix));
+            }
+        }
+        if (profiled) {
+            header.append(",").append(ContentionProfile.CSV_HEADER);
+        }
+        return header.toString();
+    }
+
+    // The measurements of m as the columns of header(): averages over the runs, except the
+    // standard deviation of the time, the GC totals, the longest stop lag and the merged latencies
+    private static String columns(Measurement m, int threads, boolean logged, boolean profiled) {
+        RunResult[] results = m.results;
+        double[] time = stats(Arrays.stream(results).mapToLong(r -> r.time).toArray());
+        double opsPerSecond = average(results, r -> r.throughput());
+        StringBuilder columns = new StringBuilder(String.format("%.6f,%.6f", time[0], time[1]));
+        if (logged) {
+            columns.append(String.format(",%.1f,%.0f", average(results, r -> r.discrepancies), average(results, r -> r.validationTime)));
+        }
+        columns.append(String.format(",%.2f,%.2f,%.0f,%d,%d", average(results, r -> r.bytesPerOp), threads * 1e9 / opsPerSecond,
+                                     opsPerSecond, m.gcTime, m.gcCount));
+        if (System.getProperty("trace") != null) {
+            columns.append(String.format(",%d,%.2f", m.generationTime, m.nsPerSample));
+        }
+        if (BATCH > 0) {
+            columns.append(",").append(BATCH);
+        }
+        if (SEGMENT_SIZE > 0 && logged) {
+            columns.append(String.format(",%.1f,%.0f", average(results, r -> r.lateEntries), average(results, r -> r.peakLogEntries)));
+        }
+        if (DURATION != null) {
+            columns.append(String.format(",%.0f,%.0f,%.4f,%d", average(results, r -> r.timed.minThreadOps()),
+                                         average(results, r -> r.timed.maxThreadOps()), average(results, r -> r.timed.threadOpsSpread()),
+                                         Arrays.stream(results).mapToLong(r -> r.timed.maxStopLag()).max().orElse(0)));
+        }
+        if (FOOTPRINT) {
+            columns.append(String.format(",%.0f,%.2f,%.2f", m.footprint[0], m.footprint[1], m.footprint[2]));
+        }
+        if (LATENCY) {
+            for (LatencyHistogram h : m.histograms) {
+                columns.append(String.format(",%d,%d,%d,%d,%d", h.valueAtPercentile(50), h.valueAtPercentile(90),
+                                             h.valueAtPercentile(99), h.valueAtPercentile(99.9), h.max()));
+            }
+        }
+        if (profiled) {
+            // Sets that do not count contention leave the profile columns empty
+            columns.append(",").append(results[0].profile != null ? profileColumns(results)
+                    : ContentionProfile.CSV_HEADER.replaceAll("[^,]", ""));
+        }
+        return columns.toString();
+    }
+
+    // {average, standard deviation} of samples
+    public static double[] stats(long[] samples) {
+        double sum = 0;
+        double sumSquared = 0;
+        for (long sample : samples) {
+            sum += sample;
+            sumSquared += (double) sample * sample;
+        }
+        double average = sum / samples.length;
+        double variance = (sumSquared / samples.length) - (average * average);
+        return new double[]{average, Math.sqrt(Math.max(variance, 0))};
+    }
+
+    private static double average(RunResult[] results, ToDoubleFunction<RunResult> field) {
+        return Arrays.stream(results).mapToDouble(field).average().orElse(0);
+    }
+
+    // Warms up and then measures one configuration on a new set of setType. With -Dduration the
+    // throughput of every interval of every run, warmups included so that JIT warm-up shows, is
+    // written to series.
+    private static Measurement measure(String setType, int threads, String distribution, String mix, int opsPerThread, PrintWriter series) {
         // Distribution of adds/removes/contains
-        int[] ops = Arrays.stream(opsDist.split(":"))
+        int[] ops = Arrays.stream(mix.split(":"))
                 .mapToInt(v -> Integer.parseInt(v)).toArray();
         // Warm up rounds
         int warmups = 5;
         // Measurement rounds
         int measurements = 10;
 
-        LockFreeSet<Integer> set = getSet(setName, threads);
         Distribution opsDistribution = new Distribution.Discrete(42, ops);
-        Distribution valuesDistribution = getDistribution(distribution, maxValue);
+        Distribution valuesDistribution = getDistribution(distribution, MAX_VALUE);
+        LockFreeSet<Integer> set = newSet(setType, threads, valuesDistribution);
+        boolean logged = hasLog(set);
+        boolean profiled = enableProfiling(set, MAX_VALUE);
+        // A streamed log only ever holds a few segments per thread
+        if (set instanceof ColumnarLogged && SEGMENT_SIZE <= 0) {
+            ((ColumnarLogged) set).reserveLog(opsPerThread);
+        }
+
+        Measurement m = new Measurement();
+        if (FOOTPRINT) {
+            m.footprint = footprint(set, threads);
+        }
 
+        // Operations and keys pre-generated before the runs with -Dtrace, see Trace.fromProperty()
+        Trace trace = null;
+        long start = System.nanoTime();
+        try {
+            trace = Trace.fromProperty(distribution + "-" + MAX_VALUE + "-" + mix.replace(':', '_') + "-" + threads + "x" + opsPerThread,
+                                       threads, opsPerThread, opsDistribution, valuesDistribution);
+        } catch (IOException e) {
+            System.err.println("ERROR: Could not read trace: " + e.getMessage());
+            System.exit(1);
+        }
+        if (trace != null) {
+            m.generationTime = System.nanoTime() - start;
+            m.nsPerSample = sampleCost(valuesDistribution, opsPerThread);
+        }
+
+        LatencyHistogram[] warmupHistograms = LATENCY ? newLatencyHistograms() : null;
         for (int i = 0; i < warmups; ++i) {
-            long time = Experiment.run(threads, opsPerThread, set, opsDistribution, valuesDistribution);
-            // Only validate if not using Default set
-            if (!setName.equals("Default")) {
-                int discrepancy = Log.validate(set.getLog());
-            }
-            set.reset();
+            RunResult result = runOnce(set, threads, opsPerThread, opsDistribution, valuesDistribution, trace, warmupHistograms, logged, profiled);
+            writeIntervals(series, setType + "," + threads + "," + distribution + "," + mix + "," + i, result);
         }
 
-        RunResult[] results = new RunResult[measurements];
+        m.histograms = LATENCY ? newLatencyHistograms() : null;
+        m.results = new RunResult[measurements];
+        long gcTimeBefore = gcTime();
+        long gcCountBefore = gcCount();
         for (int i = 0; i < measurements; ++i) {
-            long time = Experiment.run(threads, opsPerThread, set, opsDistribution, valuesDistribution);
-            int discrepancy = 0;
-            // Only validate if not using Default set
-            if (!setName.equals("Default")) {
-                discrepancy = Log.validate(set.getLog());
+            m.results[i] = runOnce(set, threads, opsPerThread, opsDistribution, valuesDistribution, trace, m.histograms, logged, profiled);
+            writeIntervals(series, setType + "," + threads + "," + distribution + "," + mix + "," + (warmups + i), m.results[i]);
+        }
+        m.gcTime = gcTime() - gcTimeBefore;
+        m.gcCount = gcCount() - gcCountBefore;
+        return m;
+    }
+
+    // One run of measure(), through runTimed() with -Dduration, runBatched() with -Dbatch,
+    // runRecorded() into histograms with -Dlatency and run() otherwise. The set is then validated
+    // if it logs, and reset.
+    private static RunResult runOnce(LockFreeSet<Integer> set, int threads, int opsPerThread, Distribution ops, Distribution values,
+                                     Trace trace, LatencyHistogram[] histograms, boolean logged, boolean profiled) {
+        if (FILL) {
+            fill(set, threads);
+        }
+        ColumnarLog log = (set instanceof ColumnarLogged) ? ((ColumnarLogged) set).columnarLog() : null;
+        StreamingValidator validator = (SEGMENT_SIZE > 0 && log != null) ? log.stream(SEGMENT_SIZE, System.err) : null;
+
+        long[] allocated = {-1};
+        long operations = (long) threads * opsPerThread;
+        TimedResult timed = null;
+        long time;
+        if (DURATION != null) {
+            timed = runTimed(threads, DURATION, INTERVAL, set, ops, values, trace);
+            time = timed.sampleTimes[timed.intervals() - 1];
+            operations = Arrays.stream(timed.threadOps).sum();
+        } else if (BATCH > 0) {
+            time = runBatched(threads, opsPerThread, BATCH, (LockFreeSkipList<Integer>) set, ops, values);
+        } else if (histograms != null) {
+            time = runRecorded(threads, opsPerThread, set, ops, values, trace, histograms);
+        } else {
+            time = (trace != null) ? run(threads, set, trace, allocated)
+                    : run(threads, opsPerThread, set, ops, values, allocated);
+        }
+
+        long start = System.nanoTime();
+        int discrepancies = 0;
+        // Only validate sets that record a log
+        if (validator != null) {
+            discrepancies = log.endStream();
+        } else if (logged) {
+            discrepancies = Log.validate(set);
+        }
+        long validationTime = logged ? System.nanoTime() - start : 0;
+        long late = (validator != null) ? validator.late() : 0;
+        long peak = (validator != null) ? validator.peakPending() + (long) threads * SEGMENT_SIZE : logged ? operations : 0;
+        ContentionProfile profile = profiled ? ((Profiled) set).profile() : null;
+        double bytesPerOp = (allocated[0] >= 0) ? (double) allocated[0] / operations : -1;
+        set.reset();
+        return new RunResult(time, operations, discrepancies, validationTime, bytesPerOp, profile, late, peak, timed);
+    }
+
+    // Writes the throughput of every interval of a run with -Dduration to series, after row
+    private static void writeIntervals(PrintWriter series, String row, RunResult result) {
+        if (series == null || result.timed == null) {
+            return;
+        }
+        for (int k = 0; k < result.timed.intervals(); ++k) {
+            series.printf("%s,%d,%.1f,%.0f%n", row, k, result.timed.sampleTimes[k] / 1e6, result.timed.throughput(k));
+        }
+        series.flush();
+    }
+
+    // Adds every even key in [0, MAX_VALUE) to set, thread t adding every threads-th of them,
+    // so that half of the lookups of a run hit. Returns the time taken.
+    private static long fill(LockFreeSet<Integer> set, int threads) {
+        IntLockFreeSet intSet = (set instanceof IntLockFreeSet) ? (IntLockFreeSet) set : null;
+        List<Callable<Void>> fillers = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            final int threadId = t;
+            fillers.add(() -> {
+                for (int key = 2 * threadId; key < MAX_VALUE; key += 2 * threads) {
+                    apply(set, intSet, threadId, 0, key);
+                }
+                return null;
+            });
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            long startTime = System.nanoTime();
+            List<Future<Void>> futures = executorService.invokeAll(fillers);
+            long endTime = System.nanoTime();
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Fill thread failed", e.getCause());
+                }
             }
-            results[i] = new RunResult(time, discrepancy);
-            set.reset();
+            return endTime - startTime;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while filling the set", e);
+        } finally {
+            executorService.shutdown();
         }
+    }
 
-        return results;
+    // Returns {fill time, heap bytes per key, off-heap bytes per key} of set filled by fill().
+    // The live heap is measured after a full GC, before and after the fill, while the set is
+    // reachable; the set is reset afterwards.
+    private static double[] footprint(LockFreeSet<Integer> set, int threads) {
+        long heapBefore = liveHeap();
+        long fillTime = fill(set, threads);
+        double keys = (MAX_VALUE + 1) / 2;
+        double heapPerKey = (liveHeap() - heapBefore) / keys;
+        double offHeapPerKey = (set instanceof OffHeapIntSkipList) ? ((OffHeapIntSkipList) set).arenaBytes() / keys : 0;
+        set.reset();
+        return new double[]{fillTime, heapPerKey, offHeapPerKey};
+    }
+
+    // Nanoseconds per key drawn from a copy of values on one thread
+    private static double sampleCost(Distribution values, int samples) {
+        Distribution sampler = values.copy(0);
+        long keys = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < samples; ++i) {
+            keys += sampler.next();
+        }
+        double nsPerSample = (double) (System.nanoTime() - start) / samples;
+        sink = keys;
+        return nsPerSample;
+    }
+
+    private static long liveHeap() {
+        MemoryMXBean bean = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return bean.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long gcTime() {
+        long total = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(bean.getCollectionTime(), 0);
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(bean.getCollectionCount(), 0);
+        }
+        return total;
     }
 
     public static Distribution getDistribution(String name, int maxValue) {
@@ -201,49 +1002,129 @@ public class Experiment {
             case "Normal":
                 return new Distribution.Normal(0xcafecafe, 10, 0, maxValue);
             default: 
-                return null;
+                // Zipf, Hotspot, SlidingHotspot and Monotonic, with optional parameters
+                return Distribution.get(name, 0x5eed5eed, 0, maxValue);
         }
     }
 
-    public static LockFreeSet<Integer> getSet(String name, int threads) {
+    public static LockFreeSet<Integer> getSet(String name, int threads, int maxValue) {
+        return getSet(name, threads, maxValue, BackoffPolicy.NONE);
+    }
+
+    public static LockFreeSet<Integer> getSet(String name, int threads, int maxValue, BackoffPolicy backoff) {
+        return getSet(name, threads, maxValue, backoff, Clock.NANO);
+    }
+
+    public static LockFreeSet<Integer> getSet(String name, int threads, int maxValue, BackoffPolicy backoff, Clock clock) {
+        return getSet(name, threads, maxValue, backoff, clock, null);
+    }
+
+    // CAS retries in the set, and in every shard of a sharded set, go through backoff.
+    // Every logging set timestamps its linearization points with clock. The Lazy clock only samples
+    // once per search in the LocalLog, GlobalLog and CustomLog lists; elsewhere it is NanoTime.
+    // ShardedSampled places its shard bounds by sampling values, or evenly like Sharded if it is null.
+    public static LockFreeSet<Integer> getSet(String name, int threads, int maxValue, BackoffPolicy backoff, Clock clock, Distribution values) {
+        // Keys are drawn from [0, maxValue), which bounds the size of the set
+        int levels = LockFreeSkipList.levelsFor(maxValue);
         switch (name) {
             case "Default": 
-                return new LockFreeSkipList<Integer>();
+                return new LockFreeSkipList<Integer>(0, levels, backoff);
             case "Locked":
-                return new GlobalLockSkipList<Integer>();
+                return new GlobalLockSkipList<Integer>(0, levels, backoff, clock);
             case "LocalLog":
-                return new LocalLogSkipList<Integer>();
+                return new LocalLogSkipList<Integer>(0, levels, backoff, clock);
             case "GlobalLog":
-                return new GlobalLogSkipList<Integer>();
+                return new GlobalLogSkipList<Integer>(0, levels, backoff, clock);
             case "CustomLog":
-                return new CustomLogSkipList<Integer>();
+                return new CustomLogSkipList<Integer>(0, levels, backoff, clock);
+            case "Int":
+                return new IntLockFreeSkipList(0, levels, backoff);
+            case "VarHandle":
+                return new VarHandleSkipList<Integer>(levels, backoff);
+            case "BufferedDefault":
+                return new LockFreeSkipList<Integer>(threads, levels, backoff);
+            case "BufferedLocked":
+                return new GlobalLockSkipList<Integer>(threads, levels, backoff, clock);
+            case "BufferedLocalLog":
+                return new LocalLogSkipList<Integer>(threads, levels, backoff, clock);
+            case "BufferedGlobalLog":
+                return new GlobalLogSkipList<Integer>(threads, levels, backoff, clock);
+            case "BufferedCustomLog":
+                return new CustomLogSkipList<Integer>(threads, levels, backoff, clock);
+            case "CustomSegmentedLog":
+                return new CustomLogSkipList<Integer>(0, levels, backoff, clock, new SegmentedQueue<>());
+            case "BufferedCustomSegmentedLog":
+                return new CustomLogSkipList<Integer>(threads, levels, backoff, clock, new SegmentedQueue<>());
+            case "CustomWaitFreeLog":
+                return new CustomLogSkipList<Integer>(0, levels, backoff, clock, new WaitFreeQueue<>(threads));
+            case "BufferedCustomWaitFreeLog":
+                return new CustomLogSkipList<Integer>(threads, levels, backoff, clock, new WaitFreeQueue<>(threads));
+            case "BufferedInt":
+                return new IntLockFreeSkipList(threads, levels, backoff);
+            case "OffHeap":
+                return new OffHeapIntSkipList(threads, levels, backoff);
+            case "Recycling":
+                return new RecyclingSkipList<Integer>(threads, levels, true, backoff);
+            case "RecyclingOff":
+                return new RecyclingSkipList<Integer>(threads, levels, false, backoff);
+            case "FlatCombining":
+                return new FlatCombiningSet<Integer>(threads, clock);
+            case "Lazy":
+                return new LazySkipList<Integer>(threads, levels, false);
+            case "LazyLog":
+                return new LazySkipList<Integer>(threads, levels, true, clock);
+            case "SplitOrdered":
+                return new SplitOrderedHashSet(threads, false, backoff);
+            case "SplitOrderedLog":
+                return new SplitOrderedHashSet(threads, true, backoff, clock);
+            case "Sharded":
+                return new ShardedSkipListSet(ShardedSkipListSet.fixedBounds(ShardedSkipListSet.SHARDS, 0, maxValue),
+                                              shard -> new LockFreeSkipList<Integer>(threads, levels, backoff));
+            case "ShardedSampled":
+                return new ShardedSkipListSet((values != null) ? ShardedSkipListSet.sampledBounds(ShardedSkipListSet.SHARDS, values, 10_000)
+                                              : ShardedSkipListSet.fixedBounds(ShardedSkipListSet.SHARDS, 0, maxValue),
+                                              shard -> new LockFreeSkipList<Integer>(threads, levels, backoff));
+            case "ShardedLocalLog":
+                return new ShardedSkipListSet(ShardedSkipListSet.fixedBounds(ShardedSkipListSet.SHARDS, 0, maxValue),
+                                              shard -> new LocalLogSkipList<Integer>(threads, levels, backoff, clock));
             default: 
                 return null;
         }
     }
 
-    private static double[] calculateStatistics(RunResult[] results, String setType) {
-        double sum = 0;
-        double sumSquared = 0;
-        int total_disc = 0;
-        
-        for (RunResult result : results) {
-            sum += result.time;
-            sumSquared += result.time * result.time;
-            // max_disc = (result.discrepancies > max_disc) ? result.discrepancies : max_disc;
-            total_disc += result.discrepancies;
-        }
-        
-        double average = sum / results.length;
-        double variance = (sumSquared / results.length) - (average * average);
-        double stdDev = Math.sqrt(variance);
-        double ave_disc = total_disc / results.length;
-        
-        // Return different arrays based on set type
-        if (setType.equals("Default")) {
-            return new double[]{average, stdDev};
-        } else {
-            return new double[]{average, stdDev, ave_disc};
+    // A set for measure(): a getSet() name, optionally followed by ":" and the name of the Clock of
+    // its linearization points, e.g. BufferedLocalLog:Ticket. Null if either is unknown.
+    private static LockFreeSet<Integer> newSet(String setType, int threads, Distribution values) {
+        String[] parts = setType.split(":");
+        Clock clock = Clock.get((parts.length > 1) ? parts[1] : "NanoTime", Math.max(threads, 1));
+        if (parts.length > 2 || clock == null) {
+            return null;
+        }
+        return getSet(parts[0], threads, MAX_VALUE, BackoffPolicy.NONE, clock, values);
+    }
+
+    // Whether the set records linearization points that getLog() can return
+    private static boolean hasLog(LockFreeSet<Integer> set) {
+        return set.getLog() != null;
+    }
+
+    // Starts counting contention events in the set, see Profiled, and returns whether it counts them
+    private static boolean enableProfiling(LockFreeSet<Integer> set, int maxKey) {
+        if (!(set instanceof Profiled)) {
+            return false;
+        }
+        ((Profiled) set).enableProfiling(maxKey, HEATMAP_BUCKETS);
+        return ((Profiled) set).profile() != null;
+    }
+
+    // Contention counters summed over the runs: per-op rates, then per-level and heatmap totals
+    private static String profileColumns(RunResult[] results) {
+        ContentionProfile[] profiles = new ContentionProfile[results.length];
+        long operations = 0;
+        for (int i = 0; i < results.length; i++) {
+            profiles[i] = results[i].profile;
+            operations += results[i].operations;
         }
+        return ContentionProfile.sum(profiles).csvColumns(operations);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Flat combining (Hendler et al., "Flat combining and the synchronization-parallelism tradeoff", 2010).
+// A thread publishes its operation in its own slot and then either takes the combiner lock and
+// applies every published operation to a sequential TreeSet, or waits until a combiner has
+// applied its own. Operations take effect one at a time inside the combiner, which stamps each
+// one as it applies it, so the log is already in linearization order.
+public class FlatCombiningSet<T extends Comparable<T>> implements LockFreeSet<T> {
+    /* Slot states. A slot holds a request until a combiner replaces it with a response. */
+    private static final int EMPTY = 0;
+    private static final int ADD = 1;
+    private static final int REMOVE = 2;
+    private static final int CONTAINS = 3;
+    private static final int RETURNED_FALSE = 4;
+    private static final int RETURNED_TRUE = 5;
+
+    /* Slots are spaced 128 bytes apart so threads do not share cache lines */
+    private static final int STRIDE = 32;
+
+    private final int threads;
+    private final AtomicIntegerArray slots;
+    /* Argument of each pending request, published by the volatile write of its slot */
+    private final Object[] args;
+
+    /* Everything below is only touched by the thread holding combinerLock */
+    private final ReentrantLock combinerLock = new ReentrantLock();
+    private final TreeSet<T> set = new TreeSet<>();
+    private final ArrayList<Log.Entry> log = new ArrayList<>();
+    /* Source of linearization timestamps, sampled by the combiner */
+    private final Clock clock;
+
+    // One slot per thread, for threadIds 0 to threads - 1.
+    public FlatCombiningSet(int threads) {
+        this(threads, Clock.NANO);
+    }
+
+    // The combiner timestamps each operation with clock as it applies it.
+    public FlatCombiningSet(int threads, Clock clock) {
+        this.threads = threads;
+        this.clock = clock;
+        slots = new AtomicIntegerArray(threads * STRIDE);
+        args = new Object[threads * STRIDE];
+    }
+
+    public boolean add(int threadId, T x) {
+        return apply(threadId, ADD, x);
+    }
+
+    public boolean remove(int threadId, T x) {
+        return apply(threadId, REMOVE, x);
+    }
+
+    public boolean contains(int threadId, T x) {
+        return apply(threadId, CONTAINS, x);
+    }
+
+    private boolean apply(int threadId, int method, T x) {
+        int slot = threadId * STRIDE;
+        args[slot] = x;
+        slots.set(slot, method);
+        while (true) {
+            if (combinerLock.tryLock()) {
+                try {
+                    combine(threadId);
+                } finally {
+                    combinerLock.unlock();
+                }
+            }
+            int state = slots.get(slot);
+            if (state == RETURNED_TRUE || state == RETURNED_FALSE) {
+                slots.set(slot, EMPTY);
+                return state == RETURNED_TRUE;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    // Applies every pending request once, in slot order, on behalf of the combiner threadId.
+    @SuppressWarnings("unchecked")
+    private void combine(int threadId) {
+        for (int slot = 0; slot < threads * STRIDE; slot += STRIDE) {
+            int method = slots.get(slot);
+            if (method != ADD && method != REMOVE && method != CONTAINS) {
+                continue;
+            }
+            T x = (T) args[slot];
+            boolean ret;
+            Log.Method logMethod;
+            switch (method) {
+                case ADD:
+                    ret = set.add(x);
+                    logMethod = Log.Method.ADD;
+                    break;
+                case REMOVE:
+                    ret = set.remove(x);
+                    logMethod = Log.Method.REMOVE;
+                    break;
+                default:
+                    ret = set.contains(x);
+                    logMethod = Log.Method.CONTAINS;
+                    break;
+            }
+            // Linearization point: the operation takes effect here, under the combiner lock
+            log.add(new Log.Entry(logMethod, x.hashCode(), ret, clock.now(threadId)));
+            args[slot] = null;
+            slots.set(slot, ret ? RETURNED_TRUE : RETURNED_FALSE);
+        }
+    }
+
+    public Log.Entry[] getLog() {
+        combinerLock.lock();
+        try {
+            return log.toArray(new Log.Entry[0]);
+        } finally {
+            combinerLock.unlock();
+        }
+    }
+
+    public void reset() {
+        combinerLock.lock();
+        try {
+            set.clear();
+            log.clear();
+        } finally {
+            combinerLock.unlock();
+        }
+    }
+}
@@ -1,25 +1,73 @@
 import java.util.concurrent.atomic.AtomicMarkableReference;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.ArrayList;
 import java.util.List;
 
-public class GlobalLockSkipList<T extends Comparable<T>> implements LockFreeSet<T> {
-    /* Number of levels */
+public class GlobalLockSkipList<T extends Comparable<T>> implements LockFreeSet<T>, Profiled {
+    /* Default number of levels */
     private static final int MAX_LEVEL = 16;
 
-    private final Node<T> head = new Node<T>();
-    private final Node<T> tail = new Node<T>();
+    /* Number of levels above the bottom level, fixed at construction */
+    private final int maxLevel;
+    /* Called after every failed CAS before it is retried */
+    private final BackoffPolicy backoff;
+    /* Highest top level of any node inserted since the last reset; searches start here */
+    private final AtomicInteger height = new AtomicInteger(0);
+
+    private final Node<T> head;
+    private final Node<T> tail;
+
+    // Per-thread search buffers indexed by threadId, or null to allocate them per operation
+    private final Scratch<T>[] scratch;
     
+    /* Source of linearization timestamps */
+    private final Clock clock;
+
     // Global lock for linearisation point time sampling
     private final ReentrantLock logLock = new ReentrantLock();
     // Thread-safe log storage
     private final List<Log.Entry> log = new ArrayList<>();
 
     public GlobalLockSkipList() {
+        this(0);
+    }
+
+    public GlobalLockSkipList(int threads) {
+        this(threads, MAX_LEVEL);
+    }
+
+    public GlobalLockSkipList(int threads, int maxLevel) {
+        this(threads, maxLevel, BackoffPolicy.NONE);
+    }
+
+    // Reuses one set of search buffers per thread, for threadIds 0 to threads - 1.
+    // With threads == 0 the buffers are allocated per operation instead.
+    // Towers have at most maxLevel levels above the bottom level, see LockFreeSkipList.levelsFor().
+    public GlobalLockSkipList(int threads, int maxLevel, BackoffPolicy backoff) {
+        this(threads, maxLevel, backoff, Clock.NANO);
+    }
+
+    // Linearization points are timestamped with clock, under the log lock.
+    @SuppressWarnings("unchecked")
+    public GlobalLockSkipList(int threads, int maxLevel, BackoffPolicy backoff, Clock clock) {
+        this.maxLevel = maxLevel;
+        this.backoff = backoff;
+        this.clock = clock;
+        head = new Node<T>(null, maxLevel);
+        tail = new Node<T>(null, maxLevel);
         for (int i = 0; i < head.next.length; i++) {
             head.next[i] = new AtomicMarkableReference<GlobalLockSkipList.Node<T>>(tail, false);
         }
+        if (threads > 0) {
+            scratch = (Scratch<T>[]) new Scratch[threads];
+            for (int i = 0; i < threads; i++) {
+                scratch[i] = new Scratch<T>(maxLevel);
+            }
+        } else {
+            scratch = null;
+        }
     }
 
     private static final class Node<T> {
@@ -29,16 +77,6 @@ public class GlobalLockSkipList<T extends Comparable<T>> implements LockFreeSet<
         // Track linearisation timestamp for this node's removal
         private volatile long removalTimestamp = -1;
 
-        @SuppressWarnings("unchecked")
-        public Node() {
-            value = null;
-            next = (AtomicMarkableReference<Node<T>>[])new AtomicMarkableReference[MAX_LEVEL + 1];
-            for (int i = 0; i < next.length; i++) {
-                next[i] = new AtomicMarkableReference<Node<T>>(null, false);
-            }
-            topLevel = MAX_LEVEL;
-        }
-
         @SuppressWarnings("unchecked")
         public Node(T x, int height) {
             value = x;
@@ -50,13 +88,34 @@ public class GlobalLockSkipList<T extends Comparable<T>> implements LockFreeSet<
         }
     }
 
-    /* Returns a level between 0 to MAX_LEVEL,
-     * P[randomLevel() = x] = 1/2^(x+1), for x < MAX_LEVEL.
+    // preds/succs filled in by find(), the holder for AtomicMarkableReference.get()
+    // and the timestamp passed back from find()
+    private static final class Scratch<T> {
+        private final Node<T>[] preds;
+        private final Node<T>[] succs;
+        private final boolean[] marked = {false};
+        /* Contention counters, null unless profiling is enabled */
+        private ContentionProfile profile = null;
+        private final FindResult findResult = new FindResult();
+
+        @SuppressWarnings("unchecked")
+        public Scratch(int maxLevel) {
+            preds = (Node<T>[]) new Node[maxLevel + 1];
+            succs = (Node<T>[]) new Node[maxLevel + 1];
+        }
+    }
+
+    private Scratch<T> scratch(int threadId) {
+        return scratch != null ? scratch[threadId] : new Scratch<T>(maxLevel);
+    }
+
+    /* Returns a level between 0 to maxLevel,
+     * P[randomLevel() = x] = 1/2^(x+1), for x < maxLevel.
      */
-    private static int randomLevel() {
+    private int randomLevel() {
         int r = ThreadLocalRandom.current().nextInt();
         int level = 0;
-        r &= (1 << MAX_LEVEL) - 1;
+        r &= (1 << maxLevel) - 1;
         while ((r & 1) != 0) {
             r >>>= 1;
             level++;
@@ -64,17 +123,38 @@ public class GlobalLockSkipList<T extends Comparable<T>> implements LockFreeSet<
         return level;
     }
 
-    @SuppressWarnings("unchecked")
+    /* Raises height to at least level before a node of that height is inserted,
+     * so every find() on its behalf fills in preds and succs up to its top level.
+     */
+    private void raiseHeight(int level) {
+        int current = height.get();
+        while (current < level && !height.compareAndSet(current, level)) {
+            current = height.get();
+        }
+    }
+
+    /* Counts a failed CAS at level if profiling is enabled, then backs off before it is retried */
+    private void casFailed(ContentionProfile profile, int level, T x, int failures) {
+        if (profile != null) {
+            profile.casFailure(level, x.hashCode());
+        }
+        backoff.backoff(failures);
+    }
+
     public boolean add(int threadId, T x) {
         int topLevel = randomLevel();
+        raiseHeight(topLevel);
         int bottomLevel = 0;
-        Node<T>[] preds = (Node<T>[]) new Node[MAX_LEVEL + 1];
-        Node<T>[] succs = (Node<T>[]) new Node[MAX_LEVEL + 1];
+        int failures = 0;
+        Scratch<T> buffers = scratch(threadId);
+        Node<T>[] preds = buffers.preds;
+        Node<T>[] succs = buffers.succs;
+        boolean[] marked = buffers.marked;
         
         while (true) {
             // Store the last curr position for potential unsuccessful add
-            FindResult findResult = new FindResult();
-            boolean found = find(x, preds, succs, findResult);
+            FindResult findResult = buffers.findResult;
+            boolean found = find(threadId, x, preds, succs, marked, findResult, buffers.profile);
             
             if (found) {
                 // Unsuccessful add - linearisation point was in find()
@@ -94,10 +174,12 @@ public class GlobalLockSkipList<T extends Comparable<T>> implements LockFreeSet<
                 logLock.lock();
                 try {
                     if (pred.next[bottomLevel].compareAndSet(succ, newNode, false, false)) {
-                        long timestamp = System.nanoTime();
+                        long timestamp = clock.now(threadId);
                         addLogEntry(Log.Method.ADD, x.hashCode(), true, timestamp);
                     } else {
                         // CAS failed, retry
+                        if (buffers.profile != null)
+                            buffers.profile.casFailure(bottomLevel, x.hashCode());
                         continue;
                     }
                 } finally {
@@ -111,7 +193,8 @@ public class GlobalLockSkipList<T extends Comparable<T>> implements LockFreeSet<
                         succ = succs[level];
                         if (pred.next[level].compareAndSet(succ, newNode, false, false))
                             break;
-                        find(x, preds, succs, null);
+                        casFailed(buffers.profile, level, x, ++failures);
+                        find(threadId, x, preds, succs, marked, null, buffers.profile);
                     }
                 }
 
@@ -120,17 +203,19 @@ public class GlobalLockSkipList<T extends Comparable<T>> implements LockFreeSet<
         }
     }
 
-    @SuppressWarnings("unchecked")
     public boolean remove(int threadId, T x) {
         int bottomLevel = 0;
-        Node<T>[] preds = (Node<T>[]) new Node[MAX_LEVEL + 1];
-        Node<T>[] succs = (Node<T>[]) new Node[MAX_LEVEL + 1];
+        int failures = 0;
+        Scratch<T> buffers = scratch(threadId);
+        Node<T>[] preds = buffers.preds;
+        Node<T>[] succs = buffers.succs;
+        boolean[] marked = buffers.marked;
         Node<T> succ;
         
         while (true) {
             // Store the last curr position for potential unsuccessful remove
-            FindResult findResult = new FindResult();
-            boolean found = find(x, preds, succs, findResult);
+            FindResult findResult = buffers.findResult;
+            boolean found = find(threadId, x, preds, succs, marked, findResult, buffers.profile);
             
             if (!found) {
                 // Unsuccessful remove - linearisation point was in find()
@@ -141,31 +226,27 @@ public class GlobalLockSkipList<T extends Comparable<T>> implements LockFreeSet<
                 
                 // Mark upper level links
                 for (int level = nodeToRemove.topLevel; level >= bottomLevel+1; level--) {
-                    boolean[] marked = {false};
                     succ = nodeToRemove.next[level].get(marked);
                     while (!marked[0]) {
-                        nodeToRemove.next[level].compareAndSet(succ, succ, false, true);
+                        if (!nodeToRemove.next[level].compareAndSet(succ, succ, false, true))
+                            casFailed(buffers.profile, level, x, ++failures);
                         succ = nodeToRemove.next[level].get(marked);
                     }
                 }
                 
-                boolean[] marked = {false};
                 succ = nodeToRemove.next[bottomLevel].get(marked);
                 
                 while (true) {
                     // Attempt to mark bottom level - this is potential linearisation point
+                    boolean iMarkedIt;
                     logLock.lock();
                     try {
-                        boolean iMarkedIt = nodeToRemove.next[bottomLevel].compareAndSet(succ, succ, false, true);
-                        long own_timestamp = System.nanoTime();
+                        iMarkedIt = nodeToRemove.next[bottomLevel].compareAndSet(succ, succ, false, true);
+                        long own_timestamp = clock.now(threadId);
                         if (iMarkedIt) {
                             // This thread marked it - this is the linearisation point
                             nodeToRemove.removalTimestamp = own_timestamp;
                             addLogEntry(Log.Method.REMOVE, x.hashCode(), true, own_timestamp);
-                            // Call find() to clean up after releasing the lock
-                            logLock.unlock();
-                            find(x, preds, succs, null);
-                            return true;
                         } else {
                             // Check if someone else marked it
                             succ = nodeToRemove.next[bottomLevel].get(marked);
@@ -181,10 +262,17 @@ public class GlobalLockSkipList<T extends Comparable<T>> implements LockFreeSet<
                                 return false;
                             }
                             // No one marked it, so retry with new succ
+                            if (buffers.profile != null)
+                                buffers.profile.casFailure(bottomLevel, x.hashCode());
                         }
                     } finally {
                         logLock.unlock();
                     }
+                    if (iMarkedIt) {
+                        // Call find() to clean up after releasing the lock
+                        find(threadId, x, preds, succs, marked, null, buffers.profile);
+                        return true;
+                    }
                 }
             }
         }
@@ -192,19 +280,20 @@ public class GlobalLockSkipList<T extends Comparable<T>> implements LockFreeSet<
 
     public boolean contains(int threadId, T x) {
         int bottomLevel = 0;
-        boolean[] marked = {false};
+        boolean[] marked = scratch != null ? scratch[threadId].marked : new boolean[] {false};
+        ContentionProfile profile = scratch != null ? scratch[threadId].profile : null;
         Node<T> pred = head;
         Node<T> curr = null;
         Node<T> succ = null;
         long lastBottomTimestamp = -1;
         
-        for (int level = MAX_LEVEL; level >= bottomLevel; level--) {
+        for (int level = height.get(); level >= bottomLevel; level--) {
             // Capture timestamp when curr is set at bottom level from previous level (line 136 equivalent)
             if (level == bottomLevel) {
                 logLock.lock();
                 curr = pred.next[level].getReference();
                 try {
-                    lastBottomTimestamp = System.nanoTime();
+                    lastBottomTimestamp = clock.now(threadId);
                 } finally {
                     logLock.unlock();
                 }
@@ -220,7 +309,7 @@ public class GlobalLockSkipList<T extends Comparable<T>> implements LockFreeSet<
                         logLock.lock();
                         curr = succ;
                         try {
-                            lastBottomTimestamp = System.nanoTime();
+                            lastBottomTimestamp = clock.now(threadId);
                         } finally {
                             logLock.unlock();
                         }
@@ -232,13 +321,15 @@ public class GlobalLockSkipList<T extends Comparable<T>> implements LockFreeSet<
                 }
                 if (curr.value != null && x.compareTo(curr.value) > 0) {
                     pred = curr;
+                    if (profile != null)
+                        profile.traverse(level);
                     
                     // Capture timestamp when curr is updated at bottom level from traversal (line 140 equivalent)
                     if (level == bottomLevel) {
                         logLock.lock();
                         curr = succ;
                         try {
-                            lastBottomTimestamp = System.nanoTime();
+                            lastBottomTimestamp = clock.now(threadId);
                         } finally {
                             logLock.unlock();
                         }
@@ -264,10 +355,10 @@ public class GlobalLockSkipList<T extends Comparable<T>> implements LockFreeSet<
         long timestamp = -1;
     }
 
-    private boolean find(T x, Node<T>[] preds, Node<T>[] succs, FindResult result) {
+    private boolean find(int threadId, T x, Node<T>[] preds, Node<T>[] succs, boolean[] marked, FindResult result, ContentionProfile profile) {
         int bottomLevel = 0;
-        boolean[] marked = {false};
         boolean snip;
+        int failures = 0;
         Node<T> pred = null;
         Node<T> curr = null;
         Node<T> succ = null;
@@ -276,13 +367,13 @@ public class GlobalLockSkipList<T extends Comparable<T>> implements LockFreeSet<
 retry:
         while (true) {
             pred = head;
-            for (int level = MAX_LEVEL; level >= bottomLevel; level--) {
+            for (int level = height.get(); level >= bottomLevel; level--) {
                 // Capture timestamp when curr is set at bottom level from previous level (line 165 equivalent)
                 if (level == bottomLevel && result != null) {
                     logLock.lock();
                     curr = pred.next[level].getReference();
                     try {
-                        lastBottomTimestamp = System.nanoTime();
+                        lastBottomTimestamp = clock.now(threadId);
                     } finally {
                         logLock.unlock();
                     }
@@ -294,14 +385,21 @@ retry:
                     succ = curr.next[level].get(marked);
                     while (marked[0]) {
                         snip = pred.next[level].compareAndSet(curr, succ, false, false);
-                        if (!snip) continue retry;
+                        if (!snip) {
+                            if (profile != null)
+                                profile.retry();
+                            casFailed(profile, level, x, ++failures);
+                            continue retry;
+                        }
+                        if (profile != null)
+                            profile.snip();
                         
                         // Capture timestamp when curr is updated at bottom level during snipping (line 171 equivalent)
                         if (level == bottomLevel && result != null) {
                             logLock.lock();
                             curr = succ;
                             try {
-                                lastBottomTimestamp = System.nanoTime();
+                                lastBottomTimestamp = clock.now(threadId);
                             } finally {
                                 logLock.unlock();
                             }
@@ -313,13 +411,15 @@ retry:
                     }
                     if (curr.value != null && x.compareTo(curr.value) > 0) {
                         pred = curr;
+                        if (profile != null)
+                            profile.traverse(level);
 
                         // Capture timestamp when curr is updated at bottom level during traversal
                         if (level == bottomLevel && result != null) {
                             logLock.lock();
                             curr = succ;
                             try {
-                                lastBottomTimestamp = System.nanoTime();
+                                lastBottomTimestamp = clock.now(threadId);
                             } finally {
                                 logLock.unlock();
                             }
@@ -358,7 +458,36 @@ retry:
         }
     }
 
+    public void enableProfiling(int maxKey, int buckets) {
+        if (scratch == null) {
+            // No per-thread buffers to count in; profile() stays null
+            return;
+        }
+        for (Scratch<T> buffers : scratch) {
+            buffers.profile = new ContentionProfile(maxLevel + 1, maxKey, buckets);
+        }
+    }
+
+    public ContentionProfile profile() {
+        if (scratch == null) {
+            return null;
+        }
+        ContentionProfile[] profiles = new ContentionProfile[scratch.length];
+        for (int i = 0; i < scratch.length; i++) {
+            profiles[i] = scratch[i].profile;
+        }
+        return ContentionProfile.sum(profiles);
+    }
+
     public void reset() {
+        if (scratch != null) {
+            for (Scratch<T> buffers : scratch) {
+                if (buffers.profile != null) {
+                    buffers.profile.clear();
+                }
+            }
+        }
+        height.set(0);
         for (int i = 0; i < head.next.length; i++) {
             head.next[i] = new AtomicMarkableReference<GlobalLockSkipList.Node<T>>(tail, false);
         }
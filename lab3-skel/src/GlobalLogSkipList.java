@@ -1,26 +1,73 @@
 import java.util.concurrent.atomic.AtomicMarkableReference;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.Arrays;
 import java.util.Comparator;
 
-public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T> {
-    /* Number of levels */
+public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T>, Profiled {
+    /* Default number of levels */
     private static final int MAX_LEVEL = 16;
 
-    private final Node<T> head = new Node<T>();
-    private final Node<T> tail = new Node<T>();
+    /* Number of levels above the bottom level, fixed at construction */
+    private final int maxLevel;
+    /* Called after every failed CAS before it is retried */
+    private final BackoffPolicy backoff;
+    /* Source of linearization timestamps */
+    private final Clock clock;
+    /* Highest top level of any node inserted since the last reset; searches start here */
+    private final AtomicInteger height = new AtomicInteger(0);
+
+    private final Node<T> head;
+    private final Node<T> tail;
+
+    // Per-thread search buffers indexed by threadId, or null to allocate them per operation
+    private final Scratch<T>[] scratch;
     
     // Global lock-free log using ConcurrentLinkedQueue
     private final ConcurrentLinkedQueue<Log.Entry> globalLog;
 
-    public GlobalLogSkipList() { 
+    public GlobalLogSkipList() {
+        this(0);
+    }
+
+    public GlobalLogSkipList(int threads) {
+        this(threads, MAX_LEVEL);
+    }
+
+    public GlobalLogSkipList(int threads, int maxLevel) {
+        this(threads, maxLevel, BackoffPolicy.NONE);
+    }
+
+    // Reuses one set of search buffers per thread, for threadIds 0 to threads - 1.
+    // With threads == 0 the buffers are allocated per operation instead.
+    // Towers have at most maxLevel levels above the bottom level, see LockFreeSkipList.levelsFor().
+    public GlobalLogSkipList(int threads, int maxLevel, BackoffPolicy backoff) {
+        this(threads, maxLevel, backoff, Clock.NANO);
+    }
+
+    // Linearization points are timestamped with clock.
+    @SuppressWarnings("unchecked")
+    public GlobalLogSkipList(int threads, int maxLevel, BackoffPolicy backoff, Clock clock) {
+        this.maxLevel = maxLevel;
+        this.backoff = backoff;
+        this.clock = clock;
+        head = new Node<T>(null, maxLevel);
+        tail = new Node<T>(null, maxLevel);
         for (int i = 0; i < head.next.length; i++) {
             head.next[i] = new AtomicMarkableReference<GlobalLogSkipList.Node<T>>(tail, false);
         }
         
         // Initialise global lock-free log
         globalLog = new ConcurrentLinkedQueue<>();
+        if (threads > 0) {
+            scratch = (Scratch<T>[]) new Scratch[threads];
+            for (int i = 0; i < threads; i++) {
+                scratch[i] = new Scratch<T>(maxLevel);
+            }
+        } else {
+            scratch = null;
+        }
     }
 
     private static final class Node<T> {
@@ -30,16 +77,6 @@ public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T
         // Track linearisation timestamp for this node's removal
         private volatile long removalTimestamp = -1;
 
-        @SuppressWarnings("unchecked")
-        public Node() {
-            value = null;
-            next = (AtomicMarkableReference<Node<T>>[])new AtomicMarkableReference[MAX_LEVEL + 1];
-            for (int i = 0; i < next.length; i++) {
-                next[i] = new AtomicMarkableReference<Node<T>>(null, false);
-            }
-            topLevel = MAX_LEVEL;
-        }
-
         @SuppressWarnings("unchecked")
         public Node(T x, int height) {
             value = x;
@@ -51,13 +88,34 @@ public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T
         }
     }
 
-    /* Returns a level between 0 to MAX_LEVEL,
-     * P[randomLevel() = x] = 1/2^(x+1), for x < MAX_LEVEL.
+    // preds/succs filled in by find(), the holder for AtomicMarkableReference.get()
+    // and the timestamp passed back from find()
+    private static final class Scratch<T> {
+        private final Node<T>[] preds;
+        private final Node<T>[] succs;
+        private final boolean[] marked = {false};
+        /* Contention counters, null unless profiling is enabled */
+        private ContentionProfile profile = null;
+        private final FindResult findResult = new FindResult();
+
+        @SuppressWarnings("unchecked")
+        public Scratch(int maxLevel) {
+            preds = (Node<T>[]) new Node[maxLevel + 1];
+            succs = (Node<T>[]) new Node[maxLevel + 1];
+        }
+    }
+
+    private Scratch<T> scratch(int threadId) {
+        return scratch != null ? scratch[threadId] : new Scratch<T>(maxLevel);
+    }
+
+    /* Returns a level between 0 to maxLevel,
+     * P[randomLevel() = x] = 1/2^(x+1), for x < maxLevel.
      */
-    private static int randomLevel() {
+    private int randomLevel() {
         int r = ThreadLocalRandom.current().nextInt();
         int level = 0;
-        r &= (1 << MAX_LEVEL) - 1;
+        r &= (1 << maxLevel) - 1;
         while ((r & 1) != 0) {
             r >>>= 1;
             level++;
@@ -65,17 +123,43 @@ public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T
         return level;
     }
 
-    @SuppressWarnings("unchecked")
+    /* Raises height to at least level before a node of that height is inserted,
+     * so every find() on its behalf fills in preds and succs up to its top level.
+     */
+    private void raiseHeight(int level) {
+        int current = height.get();
+        while (current < level && !height.compareAndSet(current, level)) {
+            current = height.get();
+        }
+    }
+
+    /* Timestamp of a step through the bottom level, or -1 if the clock is only sampled where the search ends */
+    private long stepTimestamp(int threadId) {
+        return clock.lazy() ? -1 : clock.now(threadId);
+    }
+
+    /* Counts a failed CAS at level if profiling is enabled, then backs off before it is retried */
+    private void casFailed(ContentionProfile profile, int level, T x, int failures) {
+        if (profile != null) {
+            profile.casFailure(level, x.hashCode());
+        }
+        backoff.backoff(failures);
+    }
+
     public boolean add(int threadId, T x) {
         int topLevel = randomLevel();
+        raiseHeight(topLevel);
         int bottomLevel = 0;
-        Node<T>[] preds = (Node<T>[]) new Node[MAX_LEVEL + 1];
-        Node<T>[] succs = (Node<T>[]) new Node[MAX_LEVEL + 1];
+        int failures = 0;
+        Scratch<T> buffers = scratch(threadId);
+        Node<T>[] preds = buffers.preds;
+        Node<T>[] succs = buffers.succs;
+        boolean[] marked = buffers.marked;
         
         while (true) {
             // Store the last curr position for potential unsuccessful add
-            FindResult findResult = new FindResult();
-            boolean found = find(x, preds, succs, findResult);
+            FindResult findResult = buffers.findResult;
+            boolean found = find(threadId, x, preds, succs, marked, findResult, buffers.profile);
             
             if (found) {
                 // Unsuccessful add - linearisation point was in find()
@@ -92,12 +176,13 @@ public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T
                 Node<T> succ = succs[bottomLevel];
                 
                 // Linearisation point for successful add: capture timestamp immediately before CAS
-                long timestamp = System.nanoTime();
+                long timestamp = clock.now(threadId);
                 if (pred.next[bottomLevel].compareAndSet(succ, newNode, false, false)) {
                     // CAS succeeded - this is the linearisation point
                     addLogEntry(threadId, Log.Method.ADD, x.hashCode(), true, timestamp);
                 } else {
                     // CAS failed, retry
+                    casFailed(buffers.profile, bottomLevel, x, ++failures);
                     continue;
                 }
 
@@ -108,7 +193,8 @@ public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T
                         succ = succs[level];
                         if (pred.next[level].compareAndSet(succ, newNode, false, false))
                             break;
-                        find(x, preds, succs, null);
+                        casFailed(buffers.profile, level, x, ++failures);
+                        find(threadId, x, preds, succs, marked, null, buffers.profile);
                     }
                 }
 
@@ -117,17 +203,19 @@ public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T
         }
     }
 
-    @SuppressWarnings("unchecked")
     public boolean remove(int threadId, T x) {
         int bottomLevel = 0;
-        Node<T>[] preds = (Node<T>[]) new Node[MAX_LEVEL + 1];
-        Node<T>[] succs = (Node<T>[]) new Node[MAX_LEVEL + 1];
+        int failures = 0;
+        Scratch<T> buffers = scratch(threadId);
+        Node<T>[] preds = buffers.preds;
+        Node<T>[] succs = buffers.succs;
+        boolean[] marked = buffers.marked;
         Node<T> succ;
         
         while (true) {
             // Store the last curr position for potential unsuccessful remove
-            FindResult findResult = new FindResult();
-            boolean found = find(x, preds, succs, findResult);
+            FindResult findResult = buffers.findResult;
+            boolean found = find(threadId, x, preds, succs, marked, findResult, buffers.profile);
             
             if (!found) {
                 // Unsuccessful remove - linearisation point was in find()
@@ -138,20 +226,19 @@ public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T
                 
                 // Mark upper level links
                 for (int level = nodeToRemove.topLevel; level >= bottomLevel+1; level--) {
-                    boolean[] marked = {false};
                     succ = nodeToRemove.next[level].get(marked);
                     while (!marked[0]) {
-                        nodeToRemove.next[level].compareAndSet(succ, succ, false, true);
+                        if (!nodeToRemove.next[level].compareAndSet(succ, succ, false, true))
+                            casFailed(buffers.profile, level, x, ++failures);
                         succ = nodeToRemove.next[level].get(marked);
                     }
                 }
                 
-                boolean[] marked = {false};
                 succ = nodeToRemove.next[bottomLevel].get(marked);
                 
                 while (true) {
                     // Capture timestamp immediately before attempting to mark bottom level
-                    long timestamp = System.nanoTime();
+                    long timestamp = clock.now(threadId);
                     boolean iMarkedIt = nodeToRemove.next[bottomLevel].compareAndSet(succ, succ, false, true);
                     
                     if (iMarkedIt) {
@@ -159,7 +246,7 @@ public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T
                         nodeToRemove.removalTimestamp = timestamp;
                         addLogEntry(threadId, Log.Method.REMOVE, x.hashCode(), true, timestamp);
                         // Call find() to clean up
-                        find(x, preds, succs, null);
+                        find(threadId, x, preds, succs, marked, null, buffers.profile);
                         return true;
                     } else {
                         // Check if someone else marked it
@@ -175,6 +262,7 @@ public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T
                             return false;
                         }
                         // No one marked it yet, retry with new succ
+                        casFailed(buffers.profile, bottomLevel, x, ++failures);
                     }
                 }
             }
@@ -183,17 +271,18 @@ public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T
 
     public boolean contains(int threadId, T x) {
         int bottomLevel = 0;
-        boolean[] marked = {false};
+        boolean[] marked = scratch != null ? scratch[threadId].marked : new boolean[] {false};
+        ContentionProfile profile = scratch != null ? scratch[threadId].profile : null;
         Node<T> pred = head;
         Node<T> curr = null;
         Node<T> succ = null;
         long lastBottomTimestamp = -1;
         
-        for (int level = MAX_LEVEL; level >= bottomLevel; level--) {
+        for (int level = height.get(); level >= bottomLevel; level--) {
             // Capture timestamp when curr is set at bottom level from previous level
             if (level == bottomLevel) {
                 curr = pred.next[level].getReference();
-                lastBottomTimestamp = System.nanoTime();
+                lastBottomTimestamp = stepTimestamp(threadId);
             } else {
                 curr = pred.next[level].getReference();
             }
@@ -204,7 +293,7 @@ public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T
                     // Capture timestamp when curr is updated at bottom level from marking
                     if (level == bottomLevel) {
                         curr = succ;
-                        lastBottomTimestamp = System.nanoTime();
+                        lastBottomTimestamp = stepTimestamp(threadId);
                     } else {
                         curr = succ;
                     }
@@ -213,11 +302,13 @@ public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T
                 }
                 if (curr.value != null && x.compareTo(curr.value) < 0) {
                     pred = curr;
+                    if (profile != null)
+                        profile.traverse(level);
                     
                     // Capture timestamp when curr is updated at bottom level from traversal
                     if (level == bottomLevel) {
                         curr = succ;
-                        lastBottomTimestamp = System.nanoTime();
+                        lastBottomTimestamp = stepTimestamp(threadId);
                     } else {
                         curr = succ;
                     }
@@ -227,6 +318,9 @@ public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T
             }
         }
         
+        if (clock.lazy()) {
+            lastBottomTimestamp = clock.now(threadId);
+        }
         boolean result = curr.value != null && x.compareTo(curr.value) == 0;
         
         // Log using the last captured timestamp
@@ -240,10 +334,10 @@ public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T
         long timestamp = -1;
     }
 
-    private boolean find(T x, Node<T>[] preds, Node<T>[] succs, FindResult result) {
+    private boolean find(int threadId, T x, Node<T>[] preds, Node<T>[] succs, boolean[] marked, FindResult result, ContentionProfile profile) {
         int bottomLevel = 0;
-        boolean[] marked = {false};
         boolean snip;
+        int failures = 0;
         Node<T> pred = null;
         Node<T> curr = null;
         Node<T> succ = null;
@@ -252,11 +346,11 @@ public class GlobalLogSkipList<T extends Comparable<T>> implements LockFreeSet<T
 retry:
         while (true) {
             pred = head;
-            for (int level = MAX_LEVEL; level >= bottomLevel; level--) {
+            for (int level = height.get(); level >= bottomLevel; level--) {
                 // Capture timestamp when curr is set at bottom level from previous level
                 if (level == bottomLevel && result != null) {
                     curr = pred.next[level].getReference();
-                    lastBottomTimestamp = System.nanoTime();
+                    lastBottomTimestamp = stepTimestamp(threadId);
                 } else {
                     curr = pred.next[level].getReference();
                 }
@@ -265,12 +359,19 @@ retry:
                     succ = curr.next[level].get(marked);
                     while (marked[0]) {
                         snip = pred.next[level].compareAndSet(curr, succ, false, false);
-                        if (!snip) continue retry;
+                        if (!snip) {
+                            if (profile != null)
+                                profile.retry();
+                            casFailed(profile, level, x, ++failures);
+                            continue retry;
+                        }
+                        if (profile != null)
+                            profile.snip();
                         
                         // Capture timestamp when curr is updated at bottom level during snipping
                         if (level == bottomLevel && result != null) {
                             curr = succ;
-                            lastBottomTimestamp = System.nanoTime();
+                            lastBottomTimestamp = stepTimestamp(threadId);
                         } else {
                             curr = succ;
                         }
@@ -279,11 +380,13 @@ retry:
                     }
                     if (curr.value != null && x.compareTo(curr.value) < 0) {
                         pred = curr;
+                        if (profile != null)
+                            profile.traverse(level);
 
                         // Capture timestamp when curr is updated at bottom level during traversal
                         if (level == bottomLevel && result != null) {
                             curr = succ;
-                            lastBottomTimestamp = System.nanoTime();
+                            lastBottomTimestamp = stepTimestamp(threadId);
                         } else {
                             curr = succ;
                         }
@@ -300,6 +403,9 @@ retry:
             boolean found = curr.value != null && x.compareTo(curr.value) == 0;
             // Return the last captured timestamp from bottom-level curr updates
             if (result != null) {
+                if (clock.lazy()) {
+                    lastBottomTimestamp = clock.now(threadId);
+                }
                 result.timestamp = lastBottomTimestamp;
             }
     
@@ -320,7 +426,36 @@ retry:
         return sortedLog;
     }
 
+    public void enableProfiling(int maxKey, int buckets) {
+        if (scratch == null) {
+            // No per-thread buffers to count in; profile() stays null
+            return;
+        }
+        for (Scratch<T> buffers : scratch) {
+            buffers.profile = new ContentionProfile(maxLevel + 1, maxKey, buckets);
+        }
+    }
+
+    public ContentionProfile profile() {
+        if (scratch == null) {
+            return null;
+        }
+        ContentionProfile[] profiles = new ContentionProfile[scratch.length];
+        for (int i = 0; i < scratch.length; i++) {
+            profiles[i] = scratch[i].profile;
+        }
+        return ContentionProfile.sum(profiles);
+    }
+
     public void reset() {
+        if (scratch != null) {
+            for (Scratch<T> buffers : scratch) {
+                if (buffers.profile != null) {
+                    buffers.profile.clear();
+                }
+            }
+        }
+        height.set(0);
         for (int i = 0; i < head.next.length; i++) {
             head.next[i] = new AtomicMarkableReference<GlobalLogSkipList.Node<T>>(tail, false);
         }
@@ -0,0 +1,23 @@
+// A LockFreeSet over int keys with primitive overloads of the point operations.
+// Callers holding an int (e.g. Experiment.Task) resolve to the primitive overloads and never box,
+// while the boxed LockFreeSet<Integer> methods remain available for generic code.
+public interface IntLockFreeSet extends LockFreeSet<Integer> {
+        // Add `key` using thread `threadId`.
+        boolean add(int threadId, int key);
+        // Remove `key` using thread `threadId`.
+        boolean remove(int threadId, int key);
+        // Check if `key` is present using thread `threadId`.
+        boolean contains(int threadId, int key);
+
+        default boolean add(int threadId, Integer item) {
+                return add(threadId, item.intValue());
+        }
+
+        default boolean remove(int threadId, Integer item) {
+                return remove(threadId, item.intValue());
+        }
+
+        default boolean contains(int threadId, Integer item) {
+                return contains(threadId, item.intValue());
+        }
+}
@@ -0,0 +1,278 @@
+import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Lock-free skiplist specialised to int keys. The algorithm is the same as LockFreeSkipList,
+// but keys are stored in primitive fields and compared directly, so no operation boxes its
+// argument or dispatches through Comparable.compareTo().
+// The sentinels hold Integer.MIN_VALUE (head) and Integer.MAX_VALUE (tail), which removes the
+// null checks from the traversal; those two values can therefore not be stored in the set.
+public class IntLockFreeSkipList implements IntLockFreeSet {
+        /* Default number of levels */
+        private static final int MAX_LEVEL = 16;
+
+        /* Number of levels above the bottom level, fixed at construction */
+        private final int maxLevel;
+        /* Called after every failed CAS before it is retried */
+        private final BackoffPolicy backoff;
+        /* Highest top level of any node inserted since the last reset; searches start here */
+        private final AtomicInteger height = new AtomicInteger(0);
+
+        private final Node head;
+        private final Node tail;
+
+        /* Per-thread search buffers indexed by threadId, or null to allocate them per operation */
+        private final Scratch[] scratch;
+
+        public IntLockFreeSkipList() {
+                this(0);
+        }
+
+        public IntLockFreeSkipList(int threads) {
+                this(threads, MAX_LEVEL);
+        }
+
+        public IntLockFreeSkipList(int threads, int maxLevel) {
+                this(threads, maxLevel, BackoffPolicy.NONE);
+        }
+
+        /* Reuses one set of search buffers per thread, for threadIds 0 to threads - 1.
+         * With threads == 0 the buffers are allocated per operation instead.
+         * Towers have at most maxLevel levels above the bottom level, see levelsFor().
+         */
+        public IntLockFreeSkipList(int threads, int maxLevel, BackoffPolicy backoff) {
+                this.maxLevel = maxLevel;
+                this.backoff = backoff;
+                head = new Node(Integer.MIN_VALUE, maxLevel);
+                tail = new Node(Integer.MAX_VALUE, maxLevel);
+                for (int i = 0; i < head.next.length; i++) {
+                        head.next[i] = new AtomicMarkableReference<Node>(tail, false);
+                }
+                if (threads > 0) {
+                        scratch = new Scratch[threads];
+                        for (int i = 0; i < threads; i++) {
+                                scratch[i] = new Scratch(maxLevel);
+                        }
+                } else {
+                        scratch = null;
+                }
+        }
+
+        private static final class Node {
+                private final int key;
+                private final AtomicMarkableReference<Node>[] next;
+                private final int topLevel;
+
+                @SuppressWarnings("unchecked")
+                public Node(int key, int height) {
+                        this.key = key;
+                        next = (AtomicMarkableReference<Node>[])new AtomicMarkableReference[height + 1];
+                        for (int i = 0; i < next.length; i++) {
+                                next[i] = new AtomicMarkableReference<Node>(null, false);
+                        }
+                        topLevel = height;
+                }
+        }
+
+        /* preds/succs filled in by find() and the holder for AtomicMarkableReference.get() */
+        private static final class Scratch {
+                private final Node[] preds;
+                private final Node[] succs;
+                private final boolean[] marked = {false};
+
+                public Scratch(int maxLevel) {
+                        preds = new Node[maxLevel + 1];
+                        succs = new Node[maxLevel + 1];
+                }
+        }
+
+        private Scratch scratch(int threadId) {
+                return scratch != null ? scratch[threadId] : new Scratch(maxLevel);
+        }
+
+        /* Returns a level between 0 to maxLevel,
+         * P[randomLevel() = x] = 1/2^(x+1), for x < maxLevel.
+         */
+        private int randomLevel() {
+                int r = ThreadLocalRandom.current().nextInt();
+                int level = 0;
+                r &= (1 << maxLevel) - 1;
+                while ((r & 1) != 0) {
+                        r >>>= 1;
+                        level++;
+                }
+                return level;
+        }
+
+        /* Raises height to at least level before a node of that height is inserted,
+         * so every find() on its behalf fills in preds and succs up to its top level.
+         */
+        private void raiseHeight(int level) {
+                int current = height.get();
+                while (current < level && !height.compareAndSet(current, level)) {
+                        current = height.get();
+                }
+        }
+
+        private static void checkKey(int key) {
+                if (key == Integer.MIN_VALUE || key == Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException("Key " + key + " is reserved for a sentinel");
+                }
+        }
+
+        public boolean add(int threadId, int key) {
+                checkKey(key);
+                int topLevel = randomLevel();
+                raiseHeight(topLevel);
+                int bottomLevel = 0;
+                int failures = 0;
+                Scratch buffers = scratch(threadId);
+                Node[] preds = buffers.preds;
+                Node[] succs = buffers.succs;
+                boolean[] marked = buffers.marked;
+                while (true) {
+                        boolean found = find(key, preds, succs, marked);
+                        if (found) {
+                                return false;
+                        } else {
+                                Node newNode = new Node(key, topLevel);
+                                for (int level = bottomLevel; level <= topLevel; level++) {
+                                        Node succ = succs[level];
+                                        newNode.next[level].set(succ, false);
+                                }
+                                Node pred = preds[bottomLevel];
+                                Node succ = succs[bottomLevel];
+                                if (!pred.next[bottomLevel].compareAndSet(succ, newNode, false, false)) {
+                                        backoff.backoff(++failures);
+                                        continue;
+                                }
+                                for (int level = bottomLevel + 1; level <= topLevel; level++) {
+                                        while (true) {
+                                                pred = preds[level];
+                                                succ = succs[level];
+                                                if (pred.next[level].compareAndSet(succ, newNode, false, false))
+                                                        break;
+                                                backoff.backoff(++failures);
+                                                find(key, preds, succs, marked);
+                                        }
+                                }
+                                return true;
+                        }
+                }
+        }
+
+        public boolean remove(int threadId, int key) {
+                checkKey(key);
+                int bottomLevel = 0;
+                int failures = 0;
+                Scratch buffers = scratch(threadId);
+                Node[] preds = buffers.preds;
+                Node[] succs = buffers.succs;
+                boolean[] marked = buffers.marked;
+                Node succ;
+                while (true) {
+                        boolean found = find(key, preds, succs, marked);
+                        if (!found) {
+                                return false;
+                        } else {
+                                Node nodeToRemove = succs[bottomLevel];
+                                for (int level = nodeToRemove.topLevel; level >= bottomLevel+1; level --) {
+                                        succ = nodeToRemove.next[level].get(marked);
+                                        while (!marked[0]) {
+                                                if (!nodeToRemove.next[level].compareAndSet(succ, succ, false, true))
+                                                        backoff.backoff(++failures);
+                                                succ = nodeToRemove.next[level].get(marked);
+                                        }
+                                }
+                                succ = nodeToRemove.next[bottomLevel].get(marked);
+                                while (true) {
+                                        boolean iMarkedIt = nodeToRemove.next[bottomLevel].compareAndSet(succ, succ, false, true);
+                                        succ = succs[bottomLevel].next[bottomLevel].get(marked);
+                                        if (iMarkedIt) {
+                                                find(key, preds, succs, marked);
+                                                return true;
+                                        } else if (marked[0]) {
+                                                return false;
+                                        }
+                                        backoff.backoff(++failures);
+                                }
+                        }
+                }
+        }
+
+        public boolean contains(int threadId, int key) {
+                checkKey(key);
+                int bottomLevel = 0;
+                boolean[] marked = scratch != null ? scratch[threadId].marked : new boolean[] {false};
+                Node pred = head;
+                Node curr = null;
+                Node succ = null;
+                for (int level = height.get(); level >= bottomLevel; level--) {
+                        curr = pred.next[level].getReference();
+                        while (true) {
+                                succ = curr.next[level].get(marked);
+                                while (marked[0]) {
+                                        curr = succ;
+                                        succ = curr.next[level].get(marked);
+                                }
+                                if (curr.key < key) {
+                                        pred = curr;
+                                        curr = succ;
+                                } else {
+                                        break;
+                                }
+                        }
+                }
+                return curr.key == key;
+        }
+
+        private boolean find(int key, Node[] preds, Node[] succs, boolean[] marked) {
+                int bottomLevel = 0;
+                boolean snip;
+                int failures = 0;
+                Node pred = null;
+                Node curr = null;
+                Node succ = null;
+retry:
+                while (true) {
+                        pred = head;
+                        for (int level = height.get(); level >= bottomLevel; level--) {
+                                curr = pred.next[level].getReference();
+                                while (true) {
+                                        succ = curr.next[level].get(marked);
+                                        while (marked[0]) {
+                                                snip = pred.next[level].compareAndSet(curr, succ, false, false);
+                                                if (!snip) {
+                                                        backoff.backoff(++failures);
+                                                        continue retry;
+                                                }
+                                                curr = succ;
+                                                succ = curr.next[level].get(marked);
+                                        }
+                                        if (curr.key < key) {
+                                                pred = curr;
+                                                curr = succ;
+                                        } else {
+                                                break;
+                                        }
+                                }
+
+                                preds[level] = pred;
+                                succs[level] = curr;
+                        }
+                        return curr.key == key;
+                }
+        }
+
+        public Log.Entry[] getLog() {
+                // The specialised list does not record linearization points.
+                return null;
+        }
+
+        public void reset() {
+                height.set(0);
+                for (int i = 0; i < head.next.length; i++) {
+                        head.next[i] = new AtomicMarkableReference<Node>(tail, false);
+                }
+        }
+}
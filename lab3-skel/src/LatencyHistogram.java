@@ -0,0 +1,83 @@
+import java.util.Arrays;
+
+// Log-linear histogram of non-negative values, e.g. latencies in nanoseconds, in the style of
+// HdrHistogram. Values below 2^SUB_BUCKET_BITS have a bucket each; above, every power of two is
+// split into 2^(SUB_BUCKET_BITS - 1) buckets of equal width, so a bucket's width is at most
+// 1 / 2^(SUB_BUCKET_BITS - 1) of its values, under 1.6%. record() only increments a counter, so
+// a thread can record every operation into its own histogram without allocating; add() merges
+// the histograms of several threads afterwards.
+public class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 7;
+    /* Buckets per power of two above the linear range */
+    private static final int HALF = 1 << (SUB_BUCKET_BITS - 1);
+    /* Enough for every long: the largest value has shift 64 - SUB_BUCKET_BITS */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 2) * HALF;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long max = 0;
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[index(value)]++;
+        count++;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /* shift is 0 in the linear range, then one more per power of two */
+    static int index(long value) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    /* The largest value in the bucket at index */
+    static long highestValue(int index) {
+        int shift = Math.max(0, index / HALF - 1);
+        long lowest = (long) (index - shift * HALF) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    // Adds the counts of other to this histogram.
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    // The smallest bucket bound that at least percentile % of the values are at or below, capped
+    // at the largest value recorded; 0 if the histogram is empty.
+    public long valueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max);
+            }
+        }
+        return max;
+    }
+}
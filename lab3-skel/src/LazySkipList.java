@@ -0,0 +1,333 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Lazy (optimistic, fine-grained locking) skiplist, HSLS section 14.3.
+// add() and remove() search without locks, lock the predecessors they are about to change and
+// validate them before writing. A node is in the set once fullyLinked is set and until marked is
+// set, so contains() takes no locks and never retries.
+// With logging enabled every operation records its linearization point in a per-thread log,
+// as LocalLogSkipList does.
+public class LazySkipList<T extends Comparable<T>> implements LockFreeSet<T>, ColumnarLogged {
+    /* Default number of levels */
+    private static final int MAX_LEVEL = 16;
+
+    /* Number of levels above the bottom level, fixed at construction */
+    private final int maxLevel;
+    /* Highest top level of any node inserted since the last reset; searches start here */
+    private final AtomicInteger height = new AtomicInteger(0);
+
+    private final Node<T> head;
+    private final Node<T> tail;
+
+    /* Per-thread search buffers indexed by threadId, or null to allocate them per operation */
+    private final Scratch<T>[] scratch;
+
+    /* Per-thread logs indexed by threadId, or null if logging is disabled */
+    private final ColumnarLog threadLogs;
+    /* Source of linearization timestamps */
+    private final Clock clock;
+
+    public LazySkipList() {
+        this(0, MAX_LEVEL, false);
+    }
+
+    // Reuses one set of search buffers per thread, for threadIds 0 to threads - 1.
+    // With threads == 0 the buffers are allocated per operation instead; logging needs threads > 0.
+    // Towers have at most maxLevel levels above the bottom level, see LockFreeSkipList.levelsFor().
+    public LazySkipList(int threads, int maxLevel, boolean logged) {
+        this(threads, maxLevel, logged, Clock.NANO);
+    }
+
+    // Linearization points are timestamped with clock.
+    @SuppressWarnings("unchecked")
+    public LazySkipList(int threads, int maxLevel, boolean logged, Clock clock) {
+        if (logged && threads <= 0) {
+            throw new IllegalArgumentException("Logging needs one log per thread, threads must be > 0");
+        }
+        this.maxLevel = maxLevel;
+        this.clock = clock;
+        head = new Node<T>(null, maxLevel);
+        tail = new Node<T>(null, maxLevel);
+        for (int i = 0; i <= maxLevel; i++) {
+            head.next.set(i, tail);
+        }
+        head.fullyLinked = true;
+        tail.fullyLinked = true;
+        if (threads > 0) {
+            scratch = (Scratch<T>[]) new Scratch[threads];
+            for (int i = 0; i < threads; i++) {
+                scratch[i] = new Scratch<T>(maxLevel);
+            }
+        } else {
+            scratch = null;
+        }
+        if (logged) {
+            threadLogs = new ColumnarLog(threads);
+        } else {
+            threadLogs = null;
+        }
+    }
+
+    private static final class Node<T> {
+        private final T value;
+        private final AtomicReferenceArray<Node<T>> next;
+        private final int topLevel;
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile boolean marked = false;
+        private volatile boolean fullyLinked = false;
+        // Linearization timestamp of the remove that marked the node, written before marked
+        private long removalTimestamp = -1;
+
+        public Node(T x, int height) {
+            value = x;
+            next = new AtomicReferenceArray<Node<T>>(height + 1);
+            topLevel = height;
+        }
+    }
+
+    // preds/succs filled in by find() and the time find() last read a bottom-level node
+    private static final class Scratch<T> {
+        private final Node<T>[] preds;
+        private final Node<T>[] succs;
+        private long bottomTimestamp = -1;
+
+        @SuppressWarnings("unchecked")
+        public Scratch(int maxLevel) {
+            preds = (Node<T>[]) new Node[maxLevel + 1];
+            succs = (Node<T>[]) new Node[maxLevel + 1];
+        }
+    }
+
+    private Scratch<T> scratch(int threadId) {
+        return scratch != null ? scratch[threadId] : new Scratch<T>(maxLevel);
+    }
+
+    /* Returns a level between 0 to maxLevel,
+     * P[randomLevel() = x] = 1/2^(x+1), for x < maxLevel.
+     */
+    private int randomLevel() {
+        int r = ThreadLocalRandom.current().nextInt();
+        int level = 0;
+        r &= (1 << maxLevel) - 1;
+        while ((r & 1) != 0) {
+            r >>>= 1;
+            level++;
+        }
+        return level;
+    }
+
+    /* Raises height to at least level before a node of that height is inserted,
+     * so every find() on its behalf fills in preds and succs up to its top level.
+     */
+    private void raiseHeight(int level) {
+        int current = height.get();
+        while (current < level && !height.compareAndSet(current, level)) {
+            current = height.get();
+        }
+    }
+
+    private void addLogEntry(int threadId, Log.Method method, T x, boolean ret, long timestamp) {
+        if (threadLogs != null) {
+            threadLogs.append(threadId, method, x.hashCode(), ret, timestamp);
+        }
+    }
+
+    public boolean add(int threadId, T x) {
+        int topLevel = randomLevel();
+        raiseHeight(topLevel);
+        Scratch<T> buffers = scratch(threadId);
+        Node<T>[] preds = buffers.preds;
+        Node<T>[] succs = buffers.succs;
+        while (true) {
+            int levelFound = find(threadId, x, buffers);
+            if (levelFound != -1) {
+                Node<T> nodeFound = succs[levelFound];
+                if (!nodeFound.marked) {
+                    while (!nodeFound.fullyLinked) {
+                        Thread.onSpinWait();
+                    }
+                    // Unsuccessful add - linearisation point is where the node is seen unmarked
+                    long timestamp = threadLogs != null ? clock.now(threadId) : -1;
+                    if (nodeFound.marked) {
+                        continue;
+                    }
+                    addLogEntry(threadId, Log.Method.ADD, x, false, timestamp);
+                    return false;
+                }
+                continue;
+            }
+            int highestLocked = -1;
+            try {
+                Node<T> pred, succ;
+                boolean valid = true;
+                for (int level = 0; valid && (level <= topLevel); level++) {
+                    pred = preds[level];
+                    succ = succs[level];
+                    pred.lock.lock();
+                    highestLocked = level;
+                    valid = !pred.marked && !succ.marked && pred.next.get(level) == succ;
+                }
+                if (!valid) {
+                    continue;
+                }
+                Node<T> newNode = new Node<T>(x, topLevel);
+                for (int level = 0; level <= topLevel; level++) {
+                    newNode.next.set(level, succs[level]);
+                }
+                for (int level = 0; level <= topLevel; level++) {
+                    preds[level].next.set(level, newNode);
+                }
+                // Linearisation point for successful add
+                long timestamp = threadLogs != null ? clock.now(threadId) : -1;
+                newNode.fullyLinked = true;
+                addLogEntry(threadId, Log.Method.ADD, x, true, timestamp);
+                return true;
+            } finally {
+                for (int level = 0; level <= highestLocked; level++) {
+                    preds[level].lock.unlock();
+                }
+            }
+        }
+    }
+
+    public boolean remove(int threadId, T x) {
+        Node<T> victim = null;
+        boolean isMarked = false;
+        int topLevel = -1;
+        Scratch<T> buffers = scratch(threadId);
+        Node<T>[] preds = buffers.preds;
+        Node<T>[] succs = buffers.succs;
+        while (true) {
+            int levelFound = find(threadId, x, buffers);
+            if (levelFound != -1) {
+                victim = succs[levelFound];
+            }
+            // Taken before the flags below are read, in case the remove fails on them
+            long observed = threadLogs != null && levelFound != -1 ? clock.now(threadId) : -1;
+            if (isMarked
+                    || (levelFound != -1 && victim.fullyLinked && victim.topLevel == levelFound && !victim.marked)) {
+                if (!isMarked) {
+                    topLevel = victim.topLevel;
+                    victim.lock.lock();
+                    if (victim.marked) {
+                        victim.lock.unlock();
+                        // Another thread removed it first - use its linearisation point
+                        addLogEntry(threadId, Log.Method.REMOVE, x, false, victim.removalTimestamp);
+                        return false;
+                    }
+                    // Linearisation point for successful remove
+                    long timestamp = threadLogs != null ? clock.now(threadId) : -1;
+                    victim.removalTimestamp = timestamp;
+                    victim.marked = true;
+                    isMarked = true;
+                    addLogEntry(threadId, Log.Method.REMOVE, x, true, timestamp);
+                }
+                int highestLocked = -1;
+                try {
+                    Node<T> pred;
+                    boolean valid = true;
+                    for (int level = 0; valid && (level <= topLevel); level++) {
+                        pred = preds[level];
+                        pred.lock.lock();
+                        highestLocked = level;
+                        valid = !pred.marked && pred.next.get(level) == victim;
+                    }
+                    if (!valid) {
+                        continue;
+                    }
+                    for (int level = topLevel; level >= 0; level--) {
+                        preds[level].next.set(level, victim.next.get(level));
+                    }
+                    victim.lock.unlock();
+                    return true;
+                } finally {
+                    for (int level = 0; level <= highestLocked; level++) {
+                        preds[level].lock.unlock();
+                    }
+                }
+            } else {
+                // Unsuccessful remove - linearisation point was in find(), or where the node
+                // was seen not yet linked or already marked
+                long timestamp = levelFound == -1 ? buffers.bottomTimestamp : observed;
+                addLogEntry(threadId, Log.Method.REMOVE, x, false, timestamp);
+                return false;
+            }
+        }
+    }
+
+    public boolean contains(int threadId, T x) {
+        Scratch<T> buffers = scratch(threadId);
+        int levelFound = find(threadId, x, buffers);
+        if (levelFound == -1) {
+            addLogEntry(threadId, Log.Method.CONTAINS, x, false, buffers.bottomTimestamp);
+            return false;
+        }
+        Node<T> nodeFound = buffers.succs[levelFound];
+        long timestamp = threadLogs != null ? clock.now(threadId) : -1;
+        boolean found = nodeFound.fullyLinked && !nodeFound.marked;
+        addLogEntry(threadId, Log.Method.CONTAINS, x, found, timestamp);
+        return found;
+    }
+
+    /* Fills in preds and succs for x without taking locks and returns the highest level at which
+     * a node holding x was found, or -1. When logging, buffers.bottomTimestamp is the time the
+     * last bottom-level node was read.
+     */
+    private int find(int threadId, T x, Scratch<T> buffers) {
+        Node<T>[] preds = buffers.preds;
+        Node<T>[] succs = buffers.succs;
+        boolean logged = threadLogs != null;
+        int levelFound = -1;
+        Node<T> pred = head;
+        for (int level = height.get(); level >= 0; level--) {
+            Node<T> curr = pred.next.get(level);
+            if (logged && level == 0) {
+                buffers.bottomTimestamp = clock.now(threadId);
+            }
+            while (curr.value != null && x.compareTo(curr.value) > 0) {
+                pred = curr;
+                curr = pred.next.get(level);
+                if (logged && level == 0) {
+                    buffers.bottomTimestamp = clock.now(threadId);
+                }
+            }
+            if (levelFound == -1 && curr.value != null && x.compareTo(curr.value) == 0) {
+                levelFound = level;
+            }
+            preds[level] = pred;
+            succs[level] = curr;
+        }
+        return levelFound;
+    }
+
+    public Log.Entry[] getLog() {
+        if (threadLogs == null) {
+            // Logging is disabled for this list.
+            return null;
+        }
+        return threadLogs.toEntries();
+    }
+
+    public void reserveLog(int entriesPerThread) {
+        if (threadLogs != null) {
+            threadLogs.reserve(entriesPerThread);
+        }
+    }
+
+    public ColumnarLog columnarLog() {
+        return threadLogs;
+    }
+
+    // Must not run concurrently with other operations.
+    public void reset() {
+        height.set(0);
+        for (int i = 0; i <= maxLevel; i++) {
+            head.next.set(i, tail);
+        }
+        if (threadLogs != null) {
+            threadLogs.clear();
+        }
+    }
+}
@@ -5,7 +5,7 @@ import java.util.concurrent.atomic.AtomicReference;
 // The main structure and enq()/deq() methods are copied directly from the book.
 // toArray() is used to extract the nodes to an array structure for log validation
 
-public class LockFreeQueue<T> {
+public class LockFreeQueue<T> implements ConcurrentQueue<T> {
     AtomicReference<Node> head, tail;
     public LockFreeQueue() {
         Node node = new Node(null);
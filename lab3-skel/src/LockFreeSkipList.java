@@ -1,17 +1,66 @@
 import java.util.concurrent.atomic.AtomicMarkableReference;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
-public class LockFreeSkipList<T extends Comparable<T>> implements LockFreeSet<T> {
-        /* Number of levels */
+public class LockFreeSkipList<T extends Comparable<T>> implements LockFreeSet<T>, Profiled {
+        /* Default number of levels */
         private static final int MAX_LEVEL = 16;
 
-        private final Node<T> head = new Node<T>();
-        private final Node<T> tail = new Node<T>();
+        /* Number of levels above the bottom level, fixed at construction */
+        private final int maxLevel;
+        /* Called after every failed CAS before it is retried */
+        private final BackoffPolicy backoff;
+        /* Highest top level of any node inserted since the last reset; searches start here */
+        private final AtomicInteger height = new AtomicInteger(0);
+
+        private final Node<T> head;
+        private final Node<T> tail;
+
+        /* Per-thread search buffers indexed by threadId, or null to allocate them per operation */
+        private final Scratch<T>[] scratch;
 
         public LockFreeSkipList() {
+                this(0);
+        }
+
+        public LockFreeSkipList(int threads) {
+                this(threads, MAX_LEVEL);
+        }
+
+        public LockFreeSkipList(int threads, int maxLevel) {
+                this(threads, maxLevel, BackoffPolicy.NONE);
+        }
+
+        /* Reuses one set of search buffers per thread, for threadIds 0 to threads - 1.
+         * With threads == 0 the buffers are allocated per operation instead.
+         * Towers have at most maxLevel levels above the bottom level, see levelsFor().
+         */
+        @SuppressWarnings("unchecked")
+        public LockFreeSkipList(int threads, int maxLevel, BackoffPolicy backoff) {
+                this.maxLevel = maxLevel;
+                this.backoff = backoff;
+                head = new Node<T>(null, maxLevel);
+                tail = new Node<T>(null, maxLevel);
                 for (int i = 0; i < head.next.length; i++) {
                         head.next[i] = new AtomicMarkableReference<LockFreeSkipList.Node<T>>(tail, false);
                 }
+                if (threads > 0) {
+                        scratch = (Scratch<T>[]) new Scratch[threads];
+                        for (int i = 0; i < threads; i++) {
+                                scratch[i] = new Scratch<T>(maxLevel);
+                        }
+                } else {
+                        scratch = null;
+                }
+        }
+
+        /* Number of levels above the bottom level for a list expected to hold expectedSize keys,
+         * i.e. ceil(log2(expectedSize)) so the top level holds O(1) nodes, clamped to [1, 30].
+         */
+        public static int levelsFor(int expectedSize) {
+                int levels = 32 - Integer.numberOfLeadingZeros(Math.max(expectedSize, 1) - 1);
+                return Math.min(Math.max(levels, 1), 30);
         }
 
         private static final class Node<T> {
@@ -19,16 +68,6 @@ public class LockFreeSkipList<T extends Comparable<T>> implements LockFreeSet<T>
                 private final AtomicMarkableReference<Node<T>>[] next;
                 private final int topLevel;
 
-                @SuppressWarnings("unchecked")
-                public Node() {
-                        value = null;
-                        next = (AtomicMarkableReference<Node<T>>[])new AtomicMarkableReference[MAX_LEVEL + 1];
-                        for (int i = 0; i < next.length; i++) {
-                                next[i] = new AtomicMarkableReference<Node<T>>(null, false);
-                        }
-                        topLevel = MAX_LEVEL;
-                }
-
                 @SuppressWarnings("unchecked")
                 public Node(T x, int height) {
                         value = x;
@@ -40,13 +79,34 @@ public class LockFreeSkipList<T extends Comparable<T>> implements LockFreeSet<T>
                 }
         }
 
-        /* Returns a level between 0 to MAX_LEVEL,
-         * P[randomLevel() = x] = 1/2^(x+1), for x < MAX_LEVEL.
+        /* preds/succs filled in by find() and the holder for AtomicMarkableReference.get() */
+        private static final class Scratch<T> {
+                private final Node<T>[] preds;
+                private final Node<T>[] succs;
+                private final boolean[] marked = {false};
+                /* Contention counters, null unless profiling is enabled */
+                private ContentionProfile profile = null;
+                /* Highest level of preds filled in by the last completed find() */
+                private int fingerLevel = -1;
+
+                @SuppressWarnings("unchecked")
+                public Scratch(int maxLevel) {
+                        preds = (Node<T>[]) new Node[maxLevel + 1];
+                        succs = (Node<T>[]) new Node[maxLevel + 1];
+                }
+        }
+
+        private Scratch<T> scratch(int threadId) {
+                return scratch != null ? scratch[threadId] : new Scratch<T>(maxLevel);
+        }
+
+        /* Returns a level between 0 to maxLevel,
+         * P[randomLevel() = x] = 1/2^(x+1), for x < maxLevel.
          */
-        private static int randomLevel() {
+        private int randomLevel() {
                 int r = ThreadLocalRandom.current().nextInt();
                 int level = 0;
-                r &= (1 << MAX_LEVEL) - 1;
+                r &= (1 << maxLevel) - 1;
                 while ((r & 1) != 0) {
                         r >>>= 1;
                         level++;
@@ -54,14 +114,71 @@ public class LockFreeSkipList<T extends Comparable<T>> implements LockFreeSet<T>
                 return level;
         }
 
-        @SuppressWarnings("unchecked")
+        /* Raises height to at least level before a node of that height is inserted,
+         * so every find() on its behalf fills in preds and succs up to its top level.
+         */
+        private void raiseHeight(int level) {
+                int current = height.get();
+                while (current < level && !height.compareAndSet(current, level)) {
+                        current = height.get();
+                }
+        }
+
+        /* Counts a failed CAS at level if profiling is enabled, then backs off before it is retried */
+        private void casFailed(ContentionProfile profile, int level, T x, int failures) {
+                if (profile != null) {
+                        profile.casFailure(level, x.hashCode());
+                }
+                backoff.backoff(failures);
+        }
+
         public boolean add(int threadId, T x) {
+                return insert(x, scratch(threadId), false);
+        }
+
+        public boolean remove(int threadId, T x) {
+                return delete(x, scratch(threadId), false);
+        }
+
+        /* Adds the keys of sortedKeys, which must be in ascending order, and returns how many were
+         * not already present. Each search after the first starts from the previous key's preds
+         * (a finger) instead of walking down from head.
+         */
+        public int addAll(int threadId, T[] sortedKeys) {
+                Scratch<T> buffers = scratch(threadId);
+                int added = 0;
+                for (int i = 0; i < sortedKeys.length; i++) {
+                        if (insert(sortedKeys[i], buffers, i > 0)) {
+                                added++;
+                        }
+                }
+                return added;
+        }
+
+        /* Removes the keys of sortedKeys, which must be in ascending order, and returns how many
+         * were removed by this call. Searches use the previous key as a finger, as in addAll().
+         */
+        public int removeAll(int threadId, T[] sortedKeys) {
+                Scratch<T> buffers = scratch(threadId);
+                int removed = 0;
+                for (int i = 0; i < sortedKeys.length; i++) {
+                        if (delete(sortedKeys[i], buffers, i > 0)) {
+                                removed++;
+                        }
+                }
+                return removed;
+        }
+
+        private boolean insert(T x, Scratch<T> buffers, boolean finger) {
                 int topLevel = randomLevel();
+                raiseHeight(topLevel);
                 int bottomLevel = 0;
-                Node<T>[] preds = (Node<T>[]) new Node[MAX_LEVEL + 1];
-                Node<T>[] succs = (Node<T>[]) new Node[MAX_LEVEL + 1];
+                int failures = 0;
+                Node<T>[] preds = buffers.preds;
+                Node<T>[] succs = buffers.succs;
+                boolean[] marked = buffers.marked;
                 while (true) {
-                        boolean found = find(x, preds, succs);
+                        boolean found = find(x, buffers, finger);
                         if (found) {
                                 return false;
                         } else {
@@ -73,6 +190,7 @@ public class LockFreeSkipList<T extends Comparable<T>> implements LockFreeSet<T>
                                 Node<T> pred = preds[bottomLevel];
                                 Node<T> succ = succs[bottomLevel];
                                 if (!pred.next[bottomLevel].compareAndSet(succ, newNode, false, false)) {
+                                        casFailed(buffers.profile, bottomLevel, x, ++failures);
                                         continue;
                                 }
                                 for (int level = bottomLevel + 1; level <= topLevel; level++) {
@@ -81,7 +199,8 @@ public class LockFreeSkipList<T extends Comparable<T>> implements LockFreeSet<T>
                                                 succ = succs[level];
                                                 if (pred.next[level].compareAndSet(succ, newNode, false, false))
                                                         break;
-                                                find(x, preds, succs);
+                                                casFailed(buffers.profile, level, x, ++failures);
+                                                find(x, buffers, false);
                                         }
                                 }
                                 return true;
@@ -89,37 +208,37 @@ public class LockFreeSkipList<T extends Comparable<T>> implements LockFreeSet<T>
                 }
         }
 
-        @SuppressWarnings("unchecked")
-        public boolean remove(int threadId, T x) {
+        private boolean delete(T x, Scratch<T> buffers, boolean finger) {
                 int bottomLevel = 0;
-                Node<T>[] preds = (Node<T>[]) new Node[MAX_LEVEL + 1];
-                Node<T>[] succs = (Node<T>[]) new Node[MAX_LEVEL + 1];
+                int failures = 0;
+                Node<T>[] succs = buffers.succs;
+                boolean[] marked = buffers.marked;
                 Node<T> succ;
                 while (true) {
-                        boolean found = find(x, preds, succs);
+                        boolean found = find(x, buffers, finger);
                         if (!found) {
                                 return false;
                         } else {
                                 Node<T> nodeToRemove = succs[bottomLevel];
                                 for (int level = nodeToRemove.topLevel; level >= bottomLevel+1; level --) {
-                                        boolean[] marked = {false};
                                         succ = nodeToRemove.next[level].get(marked);
                                         while (!marked[0]) {
-                                                nodeToRemove.next[level].compareAndSet(succ, succ, false, true);
+                                                if (!nodeToRemove.next[level].compareAndSet(succ, succ, false, true))
+                                                        casFailed(buffers.profile, level, x, ++failures);
                                                 succ = nodeToRemove.next[level].get(marked);
                                         }
                                 }
-                                boolean[] marked = {false};
                                 succ = nodeToRemove.next[bottomLevel].get(marked);
                                 while (true) {
                                         boolean iMarkedIt = nodeToRemove.next[bottomLevel].compareAndSet(succ, succ, false, true);
                                         succ = succs[bottomLevel].next[bottomLevel].get(marked);
                                         if (iMarkedIt) {
-                                                find(x, preds, succs);
+                                                find(x, buffers, false);
                                                 return true;
                                         } else if (marked[0]) {
                                                 return false;
                                         }
+                                        casFailed(buffers.profile, bottomLevel, x, ++failures);
                                 }
                         }
                 }
@@ -128,11 +247,12 @@ public class LockFreeSkipList<T extends Comparable<T>> implements LockFreeSet<T>
         public boolean contains(int threadId, T x) {
                 int bottomLevel = 0;
                 // int key =  x.hashCode();
-                boolean[] marked = {false};
+                boolean[] marked = scratch != null ? scratch[threadId].marked : new boolean[] {false};
+                ContentionProfile profile = scratch != null ? scratch[threadId].profile : null;
                 Node<T> pred = head;
                 Node<T> curr = null;
                 Node<T> succ = null;
-                for (int level = MAX_LEVEL; level >= bottomLevel; level--) {
+                for (int level = height.get(); level >= bottomLevel; level--) {
                         curr = pred.next[level].getReference();
                         while (true) {
                                 succ = curr.next[level].get(marked);
@@ -142,6 +262,8 @@ public class LockFreeSkipList<T extends Comparable<T>> implements LockFreeSet<T>
                                 }
                                 if (curr.value != null && x.compareTo(curr.value) > 0) {
                                         pred = curr;
+                                        if (profile != null)
+                                                profile.traverse(level);
                                         curr = succ;
                                 } else {
                                         break;
@@ -151,28 +273,145 @@ public class LockFreeSkipList<T extends Comparable<T>> implements LockFreeSet<T>
                 return curr.value != null && x.compareTo(curr.value) == 0;
         }
 
-        private boolean find(T x, Node<T>[] preds, Node<T>[] succs) {
-                int bottomLevel = 0;
+        /* Ordered queries. These are weakly consistent: they run lock-free alongside updates,
+         * never return a node that was marked when it was visited, and reflect some
+         * updates that happen concurrently with the query but not necessarily all of them.
+         */
+
+        /* Returns the smallest element >= x, or null if there is none. */
+        public T ceiling(T x) {
                 boolean[] marked = {false};
+                Node<T> curr = ceilingNode(predecessor(x, marked), x, marked);
+                return curr == tail ? null : curr.value;
+        }
+
+        /* Returns the largest element <= x, or null if there is none. */
+        public T floor(T x) {
+                boolean[] marked = {false};
+                Node<T> pred = predecessor(x, marked);
+                Node<T> curr = ceilingNode(pred, x, marked);
+                if (curr != tail && x.compareTo(curr.value) == 0) {
+                        return curr.value;
+                }
+                return pred == head ? null : pred.value;
+        }
+
+        /* Returns the number of elements in [lo, hi). */
+        public int rangeCount(T lo, T hi) {
+                int[] count = {0};
+                forEachInRange(lo, hi, value -> count[0]++);
+                return count[0];
+        }
+
+        /* Passes every element in [lo, hi) to action in ascending order, walking the bottom level
+         * in place rather than copying the range first.
+         */
+        public void forEachInRange(T lo, T hi, Consumer<? super T> action) {
+                boolean[] marked = {false};
+                Node<T> curr = ceilingNode(predecessor(lo, marked), lo, marked);
+                while (curr != tail && hi.compareTo(curr.value) > 0) {
+                        action.accept(curr.value);
+                        curr = firstUnmarked(curr.next[0].getReference(), marked);
+                }
+        }
+
+        /* Descends like contains() and returns the last bottom-level node < x, or head. */
+        private Node<T> predecessor(T x, boolean[] marked) {
+                Node<T> pred = head;
+                Node<T> curr = null;
+                Node<T> succ = null;
+                for (int level = height.get(); level >= 0; level--) {
+                        curr = pred.next[level].getReference();
+                        while (true) {
+                                succ = curr.next[level].get(marked);
+                                while (marked[0]) {
+                                        curr = succ;
+                                        succ = curr.next[level].get(marked);
+                                }
+                                if (curr.value != null && x.compareTo(curr.value) > 0) {
+                                        pred = curr;
+                                        curr = succ;
+                                } else {
+                                        break;
+                                }
+                        }
+                }
+                return pred;
+        }
+
+        /* First unmarked bottom-level node >= x after pred, or tail. */
+        private Node<T> ceilingNode(Node<T> pred, T x, boolean[] marked) {
+                Node<T> curr = firstUnmarked(pred.next[0].getReference(), marked);
+                // A node inserted behind pred after the descent may still be smaller than x
+                while (curr != tail && x.compareTo(curr.value) > 0) {
+                        curr = firstUnmarked(curr.next[0].getReference(), marked);
+                }
+                return curr;
+        }
+
+        /* curr if it is not marked for removal, otherwise the first bottom-level node after it
+         * that is not, or tail.
+         */
+        private Node<T> firstUnmarked(Node<T> curr, boolean[] marked) {
+                while (curr != tail) {
+                        Node<T> succ = curr.next[0].get(marked);
+                        if (!marked[0]) {
+                                return curr;
+                        }
+                        curr = succ;
+                }
+                return tail;
+        }
+
+        /* Fills in buffers.preds and buffers.succs for x. With finger set, the preds left by the
+         * previous find() on the same buffers, for a smaller key, are used as shortcuts: at each
+         * level the descent jumps ahead to the old pred if it is still unmarked there.
+         */
+        private boolean find(T x, Scratch<T> buffers, boolean finger) {
+                Node<T>[] preds = buffers.preds;
+                Node<T>[] succs = buffers.succs;
+                boolean[] marked = buffers.marked;
+                int bottomLevel = 0;
+                int topLevel = height.get();
                 boolean snip;
+                int failures = 0;
                 Node<T> pred = null;
                 Node<T> curr = null;
                 Node<T> succ = null;
 retry:
                 while (true) {
                         pred = head;
-                        for (int level = MAX_LEVEL; level >= bottomLevel; level--) {
+                        for (int level = topLevel; level >= bottomLevel; level--) {
+                                if (finger && level <= buffers.fingerLevel) {
+                                        Node<T> old = preds[level];
+                                        if (old != head && old != pred && x.compareTo(old.value) > 0
+                                                        && (pred == head || old.value.compareTo(pred.value) > 0)) {
+                                                old.next[level].get(marked);
+                                                if (!marked[0]) {
+                                                        pred = old;
+                                                }
+                                        }
+                                }
                                 curr = pred.next[level].getReference();
                                 while (true) {
                                         succ = curr.next[level].get(marked);
                                         while (marked[0]) {
                                                 snip = pred.next[level].compareAndSet(curr, succ, false, false);
-                                                if (!snip) continue retry;
+                                                if (!snip) {
+                                                        if (buffers.profile != null)
+                                                                buffers.profile.retry();
+                                                        casFailed(buffers.profile, level, x, ++failures);
+                                                        continue retry;
+                                                }
+                                                if (buffers.profile != null)
+                                                        buffers.profile.snip();
                                                 curr = succ;
                                                 succ = curr.next[level].get(marked);
                                         }
                                         if (curr.value != null && x.compareTo(curr.value) > 0) {
                                                 pred = curr;
+                                                if (buffers.profile != null)
+                                                        buffers.profile.traverse(level);
                                                 curr = succ;
                                         } else {
                                                 break;
@@ -182,6 +421,7 @@ retry:
                                 preds[level] = pred;
                                 succs[level] = curr;
                         }
+                        buffers.fingerLevel = topLevel;
                         return curr.value != null && x.compareTo(curr.value) == 0;
                 }
         }
@@ -191,7 +431,36 @@ retry:
                 return null;
         }
 
+        public void enableProfiling(int maxKey, int buckets) {
+                if (scratch == null) {
+                        // No per-thread buffers to count in; profile() stays null
+                        return;
+                }
+                for (Scratch<T> buffers : scratch) {
+                        buffers.profile = new ContentionProfile(maxLevel + 1, maxKey, buckets);
+                }
+        }
+
+        public ContentionProfile profile() {
+                if (scratch == null) {
+                        return null;
+                }
+                ContentionProfile[] profiles = new ContentionProfile[scratch.length];
+                for (int i = 0; i < scratch.length; i++) {
+                        profiles[i] = scratch[i].profile;
+                }
+                return ContentionProfile.sum(profiles);
+        }
+
         public void reset() {
+                if (scratch != null) {
+                        for (Scratch<T> buffers : scratch) {
+                                if (buffers.profile != null) {
+                                        buffers.profile.clear();
+                                }
+                        }
+                }
+                height.set(0);
                 for (int i = 0; i < head.next.length; i++) {
                         head.next[i] = new AtomicMarkableReference<LockFreeSkipList.Node<T>>(tail, false);
                 }
@@ -6,6 +6,19 @@ public class Log {
                 // Do not implement
         }
 
+        // Validates the log of set with ParallelValidator, reading its ColumnarLog directly if it keeps one.
+        // Sets that do not log have no discrepancies.
+        public static int validate(LockFreeSet<?> set) {
+                if (set instanceof ColumnarLogged) {
+                        ColumnarLog log = ((ColumnarLogged) set).columnarLog();
+                        if (log != null) {
+                                return log.validate();
+                        }
+                }
+                Log.Entry[] log = set.getLog();
+                return (log != null) ? ParallelValidator.validate(log) : 0;
+        }
+
         public static int validate(Log.Entry[] log) {
                 // Sort the log entries by linearisation timestamp
                 Arrays.sort(log, (a,b) -> Long.compare(a.timestamp, b.timestamp));
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Offline validation of logs dumped with ColumnarLog.dump(), e.g. by Main with -DlogDir=<dir>.
+// Merges the per-thread files of each directory by timestamp, ties by thread id, and replays
+// them as Log.validate does, so it reports the discrepancy count the run reported.
+public class LogValidator {
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: java LogValidator <log directory>...");
+            System.exit(1);
+        }
+
+        for (String dir : args) {
+            try {
+                long start = System.nanoTime();
+                long[] result = validate(Paths.get(dir));
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%s: %d entries, %d discrepancies, %.2f s, %.0f MB/s%n", dir, result[0], result[1],
+                                  seconds, result[0] * BinaryLog.RECORD_BYTES / seconds / 1e6);
+            } catch (IOException e) {
+                System.err.printf("ERROR: Could not validate %s: %s%n", dir, e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    // Returns {entries, discrepancies} of the thread-*.log files in dir.
+    public static long[] validate(Path dir) throws IOException {
+        List<BinaryLog.Reader> readers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "thread-*.log")) {
+            for (Path file : files) {
+                readers.add(new BinaryLog.Reader(file));
+            }
+        }
+        readers.sort((a, b) -> Integer.compare(a.threadId(), b.threadId()));
+        try {
+            return merge(readers.toArray(new BinaryLog.Reader[0]));
+        } finally {
+            for (BinaryLog.Reader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /* k-way merge with a binary min-heap of reader indices, ordered by (timestamp, index) */
+    private static long[] merge(BinaryLog.Reader[] readers) throws IOException {
+        long expected = 0;
+        for (BinaryLog.Reader reader : readers) {
+            expected += reader.records();
+        }
+        ReplaySet replaySet = new ReplaySet((int) Math.min(expected, 1 << 20));
+        int[] heap = new int[readers.length];
+        int size = 0;
+        for (int r = 0; r < readers.length; r++) {
+            if (readers[r].next()) {
+                heap[size++] = r;
+                siftUp(heap, size - 1, readers);
+            }
+        }
+
+        long entries = 0;
+        long num_disc = 0;
+        while (size > 0) {
+            BinaryLog.Reader reader = readers[heap[0]];
+            if (replaySet.apply(ColumnarLog.method(reader.op), reader.key) != ColumnarLog.ret(reader.op)) {
+                num_disc++;
+            }
+            entries++;
+            long previous = reader.timestamp;
+            if (reader.next()) {
+                if (reader.timestamp < previous) {
+                    throw new IOException("thread " + reader.threadId() + ": records not sorted by timestamp");
+                }
+            } else {
+                heap[0] = heap[--size];
+            }
+            siftDown(heap, 0, size, readers);
+        }
+        return new long[]{entries, num_disc};
+    }
+
+    private static boolean less(int a, int b, BinaryLog.Reader[] readers) {
+        long ta = readers[a].timestamp;
+        long tb = readers[b].timestamp;
+        return ta < tb || (ta == tb && a < b);
+    }
+
+    private static void siftUp(int[] heap, int i, BinaryLog.Reader[] readers) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!less(heap[i], heap[parent], readers)) {
+                break;
+            }
+            int swap = heap[i];
+            heap[i] = heap[parent];
+            heap[parent] = swap;
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int i, int size, BinaryLog.Reader[] readers) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && less(heap[left], heap[smallest], readers)) {
+                smallest = left;
+            }
+            if (right < size && less(heap[right], heap[smallest], readers)) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                break;
+            }
+            int swap = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = swap;
+            i = smallest;
+        }
+    }
+}
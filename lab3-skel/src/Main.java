@@ -1,3 +1,5 @@
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Arrays;
 // import java.util.Set;
 // import java.util.HashSet;
@@ -31,9 +33,32 @@ public class Main {
                 // Measurement rounds
                 int measurements = Integer.parseInt(args[7]);
 
-                LockFreeSet<Integer> set = getSet(setName, threads);
+                // CAS backoff policy, optional
+                String backoffName = args.length > 8 ? args[8] : "None";
+                BackoffPolicy backoff = BackoffPolicy.get(backoffName);
+                if (backoff == null) {
+                        System.err.println("ERROR: Unknown backoff policy " + backoffName);
+                        System.exit(1);
+                }
+
+                // Linearization clock, optional
+                String clockName = args.length > 9 ? args[9] : "NanoTime";
+                Clock clock = Clock.get(clockName, threads);
+                if (clock == null) {
+                        System.err.println("ERROR: Unknown clock " + clockName);
+                        System.exit(1);
+                }
+
+                // Fixed-duration runs, optional, see run()
+                Long duration = Long.getLong("duration");
+                if (duration != null && (duration <= 0 || Long.getLong("interval", 100) <= 0)) {
+                        System.err.println("ERROR: -Dduration and -Dinterval must be > 0 ms");
+                        System.exit(1);
+                }
+
                 Distribution opsDistribution = new Distribution.Discrete(42, ops);
-                Distribution valuesDistribution = getDistribution(distributionName, maxValue);
+                Distribution valuesDistribution = Experiment.getDistribution(distributionName, maxValue);
+                LockFreeSet<Integer> set = Experiment.getSet(setName, threads, maxValue, backoff, clock, valuesDistribution);
 
 
                 if (ops.length != 3) {
@@ -50,48 +75,82 @@ public class Main {
                         System.exit(1);
                 }
 
+                if (set instanceof ColumnarLogged) {
+                        ((ColumnarLogged) set).reserveLog(opsPerThread);
+                }
+
+                // Operations and keys pre-generated before the runs with -Dtrace, see Trace.fromProperty()
+                Trace trace = null;
+                try {
+                        trace = Trace.fromProperty(distributionName + "-" + maxValue + "-" + args[4].replace(':', '_') + "-" + threads + "x" + opsPerThread,
+                                                   threads, opsPerThread, opsDistribution, valuesDistribution);
+                } catch (IOException e) {
+                        System.err.println("ERROR: Could not read trace: " + e.getMessage());
+                        System.exit(1);
+                }
+
                 for (int i = 0; i < warmups; ++i) {
-                        long time = Experiment.run(threads, opsPerThread, set, opsDistribution, valuesDistribution);
-                        int discrepancy = Log.validate(set.getLog());
+                        long time = run("Warmup", threads, opsPerThread, set, opsDistribution, valuesDistribution, trace);
+                        int discrepancy = Log.validate(set);
                         System.err.println("Warmup time: " + time);
                         System.err.println("Warmup discrepancy: " + discrepancy);
                         set.reset();
                 }
 
+                // Directory to dump each measurement's log to for LogValidator, optional
+                String logDir = System.getProperty("logDir");
+
                 for (int i = 0; i < measurements; ++i) {
-                        long time = Experiment.run(threads, opsPerThread, set, opsDistribution, valuesDistribution);
-                        int discrepancy = Log.validate(set.getLog());
+                        long time = run("Measurement", threads, opsPerThread, set, opsDistribution, valuesDistribution, trace);
+                        int discrepancy = Log.validate(set);
                         System.err.println("Measurement time: " + time);
                         System.err.println("Measurement discrepancy: " + discrepancy);
+                        if (logDir != null && set instanceof ColumnarLogged && ((ColumnarLogged) set).columnarLog() != null) {
+                                try {
+                                        ((ColumnarLogged) set).columnarLog().dump(Paths.get(logDir, "run-" + i));
+                                } catch (IOException e) {
+                                        System.err.println("ERROR: Could not dump log to " + logDir + ": " + e.getMessage());
+                                        System.exit(1);
+                                }
+                        }
                         set.reset();
                 }
         }
 
-        public static Distribution getDistribution(String name, int maxValue) {
-                switch (name) {
-                case "Uniform": 
-                        return new Distribution.Uniform(0xdeadbeef, 0, maxValue);
-                case "Normal":
-                        return new Distribution.Normal(0xcafecafe, 10, 0, maxValue);
-                default: 
-                        return null;
+        // One run of opsPerThread operations per thread, returning its time in ns. With
+        // -Dduration=<ms> the threads run for that long instead, and the throughput of every
+        // -Dinterval=<ms> (default 100) and the spread of the threads are printed. Otherwise with
+        // -Dlatency=true every operation is timed and the latency percentiles are printed.
+        private static long run(String label, int threads, int opsPerThread, LockFreeSet<Integer> set,
+                                Distribution ops, Distribution values, Trace trace) {
+                Long duration = Long.getLong("duration");
+                if (duration == null && Boolean.getBoolean("latency")) {
+                        LatencyHistogram[] histograms = Experiment.newLatencyHistograms();
+                        long time = Experiment.runRecorded(threads, opsPerThread, set, ops, values, trace, histograms);
+                        for (int k = 0; k < histograms.length; ++k) {
+                                LatencyHistogram h = histograms[k];
+                                if (h.count() > 0) {
+                                        System.err.printf("%s latency %s: %d ops, p50 %d, p90 %d, p99 %d, p99.9 %d, max %d ns%n",
+                                                          label, Experiment.LATENCY_LABELS[k].replace(',', ' '), h.count(),
+                                                          h.valueAtPercentile(50), h.valueAtPercentile(90), h.valueAtPercentile(99),
+                                                          h.valueAtPercentile(99.9), h.max());
+                                }
+                        }
+                        return time;
                 }
-        }
-
-        public static LockFreeSet<Integer> getSet(String name, int threads) {
-                switch (name) {
-                case "Default": 
-                        return new LockFreeSkipList<Integer>();
-                case "Locked":
-                        return new GlobalLockSkipList<Integer>();
-                case "LocalLog":
-                        return new LocalLogSkipList<Integer>();
-                case "GlobalLog":
-                        return new GlobalLogSkipList<Integer>();
-                case "CustomLog":
-                        return new CustomLogSkipList<Integer>();
-                default: 
-                        return null;
+                if (duration == null) {
+                        return (trace != null) ? Experiment.run(threads, set, trace)
+                                : Experiment.run(threads, opsPerThread, set, ops, values);
+                }
+                Experiment.TimedResult result = Experiment.runTimed(threads, duration, Long.getLong("interval", 100),
+                                                                    set, ops, values, trace);
+                for (int k = 0; k < result.intervals(); ++k) {
+                        System.err.printf("%s interval %d: %.1f ms, %.0f ops/s%n", label, k,
+                                          result.sampleTimes[k] / 1e6, result.throughput(k));
                 }
+                System.err.printf("%s throughput: %.0f ops/s%n", label, result.totalThroughput());
+                System.err.printf("%s thread ops: %d-%d (CV %.4f), max stop lag: %d ns%n", label, result.minThreadOps(),
+                                  result.maxThreadOps(), result.threadOpsSpread(), result.maxStopLag());
+                return result.sampleTimes[result.intervals() - 1];
         }
 }
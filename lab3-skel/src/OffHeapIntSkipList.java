@@ -0,0 +1,430 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// IntLockFreeSkipList with its nodes stored off-heap, as fixed-layout records in an arena of
+// direct ByteBuffer chunks, so the heap holds only the chunk objects whatever the set size.
+// A node is addressed by its byte offset in the arena and laid out as
+//
+//     int key | int topLevel | long next[0] | ... | long next[topLevel]
+//
+// where each next slot holds (successor address << 1) | mark and is read and CASed through a
+// byteBufferViewVarHandle, which takes the place of AtomicMarkableReference.
+// Records are never freed: removed nodes stay in the arena until reset(), so the arena grows
+// with the number of successful adds rather than with the size of the set.
+// Like IntLockFreeSkipList, Integer.MIN_VALUE and Integer.MAX_VALUE are reserved for the sentinels.
+public class OffHeapIntSkipList implements IntLockFreeSet {
+        /* Default number of levels */
+        private static final int MAX_LEVEL = 16;
+
+        /* Arena chunks are 64 MiB; records never straddle two chunks */
+        private static final int CHUNK_BITS = 26;
+        private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+        private static final int MAX_CHUNKS = 1 << 16;
+        /* Bytes a thread claims from the shared arena at a time when it has its own buffers */
+        private static final int BLOCK_SIZE = 64 * 1024;
+
+        /* Record layout */
+        private static final int KEY = 0;
+        private static final int TOP_LEVEL = 4;
+        private static final int NEXT = 8;
+
+        private static final VarHandle SLOT =
+                MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+        /* Number of levels above the bottom level, fixed at construction */
+        private final int maxLevel;
+        /* Called after every failed CAS before it is retried */
+        private final BackoffPolicy backoff;
+        /* Highest top level of any node inserted since the last reset; searches start here */
+        private final AtomicInteger height = new AtomicInteger(0);
+
+        /* Chunks are allocated on first use */
+        private final AtomicReferenceArray<ByteBuffer> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+        /* Next unclaimed arena address */
+        private final AtomicLong top = new AtomicLong(0);
+
+        private final long head;
+        private final long tail;
+        /* Arena address of the first record after the sentinels */
+        private final long firstRecord;
+
+        /* Per-thread search buffers indexed by threadId, or null to allocate them per operation */
+        private final Scratch[] scratch;
+
+        public OffHeapIntSkipList() {
+                this(0);
+        }
+
+        public OffHeapIntSkipList(int threads) {
+                this(threads, MAX_LEVEL);
+        }
+
+        public OffHeapIntSkipList(int threads, int maxLevel) {
+                this(threads, maxLevel, BackoffPolicy.NONE);
+        }
+
+        /* Reuses one set of search buffers and one arena block per thread, for threadIds 0 to
+         * threads - 1. With threads == 0 the buffers are allocated per operation and every node
+         * is claimed from the shared arena directly.
+         * Towers have at most maxLevel levels above the bottom level, see LockFreeSkipList.levelsFor().
+         */
+        public OffHeapIntSkipList(int threads, int maxLevel, BackoffPolicy backoff) {
+                this.maxLevel = maxLevel;
+                this.backoff = backoff;
+                head = claim(recordSize(maxLevel));
+                tail = claim(recordSize(maxLevel));
+                firstRecord = top.get();
+                initialize(tail, Integer.MAX_VALUE, maxLevel);
+                initialize(head, Integer.MIN_VALUE, maxLevel);
+                linkHeadToTail();
+                if (threads > 0) {
+                        scratch = new Scratch[threads];
+                        for (int i = 0; i < threads; i++) {
+                                scratch[i] = new Scratch(maxLevel);
+                        }
+                } else {
+                        scratch = null;
+                }
+        }
+
+        /* preds/succs filled in by find(), and the thread's current arena block */
+        private static final class Scratch {
+                private final long[] preds;
+                private final long[] succs;
+                private long cursor = 0;
+                private long limit = 0;
+
+                public Scratch(int maxLevel) {
+                        preds = new long[maxLevel + 1];
+                        succs = new long[maxLevel + 1];
+                }
+        }
+
+        private Scratch scratch(int threadId) {
+                return scratch != null ? scratch[threadId] : new Scratch(maxLevel);
+        }
+
+        /* Arena */
+
+        private static int recordSize(int topLevel) {
+                return NEXT + 8 * (topLevel + 1);
+        }
+
+        /* Claims size bytes from the shared arena, skipping to the next chunk if they do not fit */
+        private long claim(int size) {
+                while (true) {
+                        long address = top.getAndAdd(size);
+                        long end = address + size;
+                        if ((address >>> CHUNK_BITS) == ((end - 1) >>> CHUNK_BITS)) {
+                                chunk(address);
+                                return address;
+                        }
+                        // The tail of this chunk is left unused
+                        top.compareAndSet(end, (end - 1) >>> CHUNK_BITS << CHUNK_BITS);
+                }
+        }
+
+        private long allocate(Scratch buffers, int topLevel) {
+                int size = recordSize(topLevel);
+                if (scratch == null) {
+                        return claim(size);
+                }
+                if (buffers.limit - buffers.cursor < size) {
+                        buffers.cursor = claim(BLOCK_SIZE);
+                        buffers.limit = buffers.cursor + BLOCK_SIZE;
+                }
+                long address = buffers.cursor;
+                buffers.cursor += size;
+                return address;
+        }
+
+        /* Gives back a record that was never linked, if it is still the thread's most recent claim */
+        private void release(Scratch buffers, long address, int topLevel) {
+                int size = recordSize(topLevel);
+                if (scratch != null && address + size == buffers.cursor) {
+                        buffers.cursor = address;
+                }
+        }
+
+        /* The chunk holding address, allocated if this is its first use */
+        private ByteBuffer chunk(long address) {
+                int index = (int) (address >>> CHUNK_BITS);
+                if (index >= MAX_CHUNKS) {
+                        throw new OutOfMemoryError("Off-heap skiplist arena exhausted");
+                }
+                ByteBuffer chunk = chunks.get(index);
+                if (chunk == null) {
+                        ByteBuffer fresh = ByteBuffer.allocateDirect((int) CHUNK_SIZE).order(ByteOrder.nativeOrder());
+                        if (!chunks.compareAndSet(index, null, fresh)) {
+                                return chunks.get(index);
+                        }
+                        chunk = fresh;
+                }
+                return chunk;
+        }
+
+        private static int offset(long address) {
+                return (int) (address & (CHUNK_SIZE - 1));
+        }
+
+        /* Records */
+
+        private void initialize(long node, int key, int topLevel) {
+                ByteBuffer chunk = chunk(node);
+                int offset = offset(node);
+                chunk.putInt(offset + KEY, key);
+                chunk.putInt(offset + TOP_LEVEL, topLevel);
+        }
+
+        private int key(long node) {
+                return chunks.get((int) (node >>> CHUNK_BITS)).getInt(offset(node) + KEY);
+        }
+
+        private int topLevel(long node) {
+                return chunks.get((int) (node >>> CHUNK_BITS)).getInt(offset(node) + TOP_LEVEL);
+        }
+
+        private long getNext(long node, int level) {
+                return (long) SLOT.getVolatile(chunks.get((int) (node >>> CHUNK_BITS)), offset(node) + NEXT + 8 * level);
+        }
+
+        /* Plain store, for records that are not yet reachable */
+        private void setNext(long node, int level, long succ, boolean mark) {
+                SLOT.set(chunks.get((int) (node >>> CHUNK_BITS)), offset(node) + NEXT + 8 * level, slot(succ, mark));
+        }
+
+        private boolean casNext(long node, int level, long expectedSucc, long newSucc, boolean expectedMark, boolean newMark) {
+                return SLOT.compareAndSet(chunks.get((int) (node >>> CHUNK_BITS)), offset(node) + NEXT + 8 * level,
+                                          slot(expectedSucc, expectedMark), slot(newSucc, newMark));
+        }
+
+        private static long slot(long succ, boolean mark) {
+                return succ << 1 | (mark ? 1 : 0);
+        }
+
+        private static long reference(long slot) {
+                return slot >>> 1;
+        }
+
+        private static boolean isMarked(long slot) {
+                return (slot & 1) != 0;
+        }
+
+        private void linkHeadToTail() {
+                for (int level = 0; level <= maxLevel; level++) {
+                        SLOT.setVolatile(chunk(head), offset(head) + NEXT + 8 * level, slot(tail, false));
+                }
+        }
+
+        /* Skiplist */
+
+        /* Returns a level between 0 to maxLevel,
+         * P[randomLevel() = x] = 1/2^(x+1), for x < maxLevel.
+         */
+        private int randomLevel() {
+                int r = ThreadLocalRandom.current().nextInt();
+                int level = 0;
+                r &= (1 << maxLevel) - 1;
+                while ((r & 1) != 0) {
+                        r >>>= 1;
+                        level++;
+                }
+                return level;
+        }
+
+        /* Raises height to at least level before a node of that height is inserted,
+         * so every find() on its behalf fills in preds and succs up to its top level.
+         */
+        private void raiseHeight(int level) {
+                int current = height.get();
+                while (current < level && !height.compareAndSet(current, level)) {
+                        current = height.get();
+                }
+        }
+
+        private static void checkKey(int key) {
+                if (key == Integer.MIN_VALUE || key == Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException("Key " + key + " is reserved for a sentinel");
+                }
+        }
+
+        public boolean add(int threadId, int key) {
+                checkKey(key);
+                int topLevel = randomLevel();
+                raiseHeight(topLevel);
+                int bottomLevel = 0;
+                int failures = 0;
+                Scratch buffers = scratch(threadId);
+                long[] preds = buffers.preds;
+                long[] succs = buffers.succs;
+                // Claimed once and reused if the bottom-level CAS has to be retried, and given
+                // back if a retry finds the key. With per-thread buffers failed attempts do not
+                // leave records behind in the arena; without them such a record stays unused.
+                long newNode = -1;
+                while (true) {
+                        boolean found = find(key, preds, succs);
+                        if (found) {
+                                if (newNode >= 0) {
+                                        release(buffers, newNode, topLevel);
+                                }
+                                return false;
+                        } else {
+                                if (newNode < 0) {
+                                        newNode = allocate(buffers, topLevel);
+                                        initialize(newNode, key, topLevel);
+                                }
+                                for (int level = bottomLevel; level <= topLevel; level++) {
+                                        long succ = succs[level];
+                                        setNext(newNode, level, succ, false);
+                                }
+                                long pred = preds[bottomLevel];
+                                long succ = succs[bottomLevel];
+                                if (!casNext(pred, bottomLevel, succ, newNode, false, false)) {
+                                        backoff.backoff(++failures);
+                                        continue;
+                                }
+                                for (int level = bottomLevel + 1; level <= topLevel; level++) {
+                                        while (true) {
+                                                pred = preds[level];
+                                                succ = succs[level];
+                                                if (casNext(pred, level, succ, newNode, false, false))
+                                                        break;
+                                                backoff.backoff(++failures);
+                                                find(key, preds, succs);
+                                        }
+                                }
+                                return true;
+                        }
+                }
+        }
+
+        public boolean remove(int threadId, int key) {
+                checkKey(key);
+                int bottomLevel = 0;
+                int failures = 0;
+                Scratch buffers = scratch(threadId);
+                long[] preds = buffers.preds;
+                long[] succs = buffers.succs;
+                long next;
+                while (true) {
+                        boolean found = find(key, preds, succs);
+                        if (!found) {
+                                return false;
+                        } else {
+                                long nodeToRemove = succs[bottomLevel];
+                                for (int level = topLevel(nodeToRemove); level >= bottomLevel+1; level --) {
+                                        next = getNext(nodeToRemove, level);
+                                        while (!isMarked(next)) {
+                                                if (!casNext(nodeToRemove, level, reference(next), reference(next), false, true))
+                                                        backoff.backoff(++failures);
+                                                next = getNext(nodeToRemove, level);
+                                        }
+                                }
+                                next = getNext(nodeToRemove, bottomLevel);
+                                while (true) {
+                                        boolean iMarkedIt = casNext(nodeToRemove, bottomLevel, reference(next), reference(next), false, true);
+                                        next = getNext(succs[bottomLevel], bottomLevel);
+                                        if (iMarkedIt) {
+                                                find(key, preds, succs);
+                                                return true;
+                                        } else if (isMarked(next)) {
+                                                return false;
+                                        }
+                                        backoff.backoff(++failures);
+                                }
+                        }
+                }
+        }
+
+        public boolean contains(int threadId, int key) {
+                checkKey(key);
+                int bottomLevel = 0;
+                long pred = head;
+                long curr = 0;
+                long next = 0;
+                for (int level = height.get(); level >= bottomLevel; level--) {
+                        curr = reference(getNext(pred, level));
+                        while (true) {
+                                next = getNext(curr, level);
+                                while (isMarked(next)) {
+                                        curr = reference(next);
+                                        next = getNext(curr, level);
+                                }
+                                if (key(curr) < key) {
+                                        pred = curr;
+                                        curr = reference(next);
+                                } else {
+                                        break;
+                                }
+                        }
+                }
+                return key(curr) == key;
+        }
+
+        private boolean find(int key, long[] preds, long[] succs) {
+                int bottomLevel = 0;
+                boolean snip;
+                int failures = 0;
+                long pred = 0;
+                long curr = 0;
+                long next = 0;
+retry:
+                while (true) {
+                        pred = head;
+                        for (int level = height.get(); level >= bottomLevel; level--) {
+                                curr = reference(getNext(pred, level));
+                                while (true) {
+                                        next = getNext(curr, level);
+                                        while (isMarked(next)) {
+                                                snip = casNext(pred, level, curr, reference(next), false, false);
+                                                if (!snip) {
+                                                        backoff.backoff(++failures);
+                                                        continue retry;
+                                                }
+                                                curr = reference(next);
+                                                next = getNext(curr, level);
+                                        }
+                                        if (key(curr) < key) {
+                                                pred = curr;
+                                                curr = reference(next);
+                                        } else {
+                                                break;
+                                        }
+                                }
+
+                                preds[level] = pred;
+                                succs[level] = curr;
+                        }
+                        return key(curr) == key;
+                }
+        }
+
+        /* Off-heap bytes claimed so far, including the unused tails of chunks and thread blocks */
+        public long arenaBytes() {
+                return top.get();
+        }
+
+        public Log.Entry[] getLog() {
+                // The off-heap list does not record linearization points.
+                return null;
+        }
+
+        // Must not run concurrently with other operations. Keeps the allocated chunks for reuse.
+        public void reset() {
+                height.set(0);
+                top.set(firstRecord);
+                if (scratch != null) {
+                        for (Scratch buffers : scratch) {
+                                buffers.cursor = 0;
+                                buffers.limit = 0;
+                        }
+                }
+                linkHeadToTail();
+        }
+}
@@ -0,0 +1,136 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// Linearizability check giving the same discrepancy count as Log.validate, in parallel.
+// Operations on different keys never affect each other's return values, so instead of one
+// replay of the whole log in timestamp order the entries are split into partitions by key,
+// and each partition is sorted by timestamp and replayed on its own into a ReplaySet of
+// primitive keys. Ties between equal timestamps keep log order, as in Log.validate's stable
+// sort, and the sort is fast on nearly sorted input as logs usually are.
+public class ParallelValidator {
+    /* Partitions per available processor, so uneven partitions still balance */
+    private static final int PARTITIONS_PER_CPU = 8;
+    /* Logs smaller than this are replayed as one partition */
+    private static final int MIN_PARALLEL_SIZE = 1 << 14;
+    /* Runs sorted by insertion sort before merging */
+    private static final int INSERTION_SORT_RUN = 32;
+
+    private ParallelValidator() {
+        // Do not implement
+    }
+
+    public static int validate(Log.Entry[] log) {
+        int size = log.length;
+        long[] timestamps = new long[size];
+        int[] args = new int[size];
+        byte[] ops = new byte[size];
+        for (int i = 0; i < size; i++) {
+            timestamps[i] = log[i].timestamp;
+            args[i] = log[i].arg;
+            ops[i] = ColumnarLog.pack(log[i].method, log[i].ret);
+        }
+        return validate(timestamps, args, ops, size);
+    }
+
+    // Validates the first size entries of the columns, with ops packed by ColumnarLog.pack().
+    public static int validate(long[] timestamps, int[] args, byte[] ops, int size) {
+        int bits = 0;
+        if (size >= MIN_PARALLEL_SIZE) {
+            int partitions = Runtime.getRuntime().availableProcessors() * PARTITIONS_PER_CPU;
+            bits = 32 - Integer.numberOfLeadingZeros(partitions - 1);
+        }
+        int partitions = 1 << bits;
+
+        // Counting sort of the entry indices by partition, keeping log order within each
+        int[] start = new int[partitions + 1];
+        for (int i = 0; i < size; i++) {
+            start[partition(args[i], bits) + 1]++;
+        }
+        for (int p = 0; p < partitions; p++) {
+            start[p + 1] += start[p];
+        }
+        int[] next = Arrays.copyOf(start, partitions);
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[next[partition(args[i], bits)]++] = i;
+        }
+
+        return IntStream.range(0, partitions).parallel()
+                .map(p -> replay(timestamps, args, ops, order, start[p], start[p + 1]))
+                .sum();
+    }
+
+    /* Spreads keys over 2^bits partitions with a Fibonacci hash */
+    private static int partition(int key, int bits) {
+        return bits == 0 ? 0 : (key * 0x9E3779B9) >>> (32 - bits);
+    }
+
+    // Discrepancies among the entries order[from, to).
+    private static int replay(long[] timestamps, int[] args, byte[] ops, int[] order, int from, int to) {
+        sort(order, from, to, timestamps);
+        ReplaySet replaySet = new ReplaySet(to - from);
+        int num_disc = 0;
+        for (int k = from; k < to; k++) {
+            int e = order[k];
+            if (replaySet.apply(ColumnarLog.method(ops[e]), args[e]) != ColumnarLog.ret(ops[e])) {
+                num_disc++;
+            }
+        }
+        return num_disc;
+    }
+
+    /* Stable sort of the indices order[from, to) by timestamp: insertion sort of short runs,
+     * then bottom-up merges, copying pairs of runs that are already in order.
+     */
+    static void sort(int[] order, int from, int to, long[] timestamps) {
+        for (int lo = from; lo < to; lo += INSERTION_SORT_RUN) {
+            int hi = Math.min(lo + INSERTION_SORT_RUN, to);
+            for (int i = lo + 1; i < hi; i++) {
+                int e = order[i];
+                long t = timestamps[e];
+                int j = i - 1;
+                while (j >= lo && timestamps[order[j]] > t) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = e;
+            }
+        }
+        int n = to - from;
+        if (n <= INSERTION_SORT_RUN) {
+            return;
+        }
+        int[] src = order;
+        int srcFrom = from;
+        int[] dst = new int[n];
+        int dstFrom = 0;
+        for (int width = INSERTION_SORT_RUN; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n);
+                int hi = Math.min(lo + 2 * width, n);
+                if (mid == hi || timestamps[src[srcFrom + mid - 1]] <= timestamps[src[srcFrom + mid]]) {
+                    System.arraycopy(src, srcFrom + lo, dst, dstFrom + lo, hi - lo);
+                    continue;
+                }
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++) {
+                    if (i < mid && (j >= hi || timestamps[src[srcFrom + i]] <= timestamps[src[srcFrom + j]])) {
+                        dst[dstFrom + k] = src[srcFrom + i++];
+                    } else {
+                        dst[dstFrom + k] = src[srcFrom + j++];
+                    }
+                }
+            }
+            int[] swap = src;
+            int swapFrom = srcFrom;
+            src = dst;
+            srcFrom = dstFrom;
+            dst = swap;
+            dstFrom = swapFrom;
+        }
+        if (src != order) {
+            System.arraycopy(src, srcFrom, order, from, n);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+// A set that can count contention events per thread, see ContentionProfile.
+public interface Profiled {
+        // Starts counting in every thread's buffers. CAS failures are bucketed by key over
+        // [0, maxKey) into `buckets` heatmap buckets. Does nothing if the set was built without
+        // per-thread buffers, whose profile() stays null.
+        void enableProfiling(int maxKey, int buckets);
+        // Sum of all threads' counters since profiling was enabled or the last reset(),
+        // or null if profiling is not enabled. Must not run concurrently with other operations.
+        ContentionProfile profile();
+}
@@ -0,0 +1,388 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+
+// LockFreeSkipList whose removed nodes are recycled instead of being left to the GC.
+// A node that has been unlinked at every level is retired into the remover's limbo list and,
+// once EpochManager reports that no operation can still reference it, moved to a per-thread
+// free list for its height. add() takes nodes, with their AtomicMarkableReference towers, from
+// that free list before allocating. reset() recycles the whole list the same way.
+//
+// AtomicMarkableReference still allocates a Pair on every successful CAS or set(),
+// so recycling removes the Node, tower array and reference objects but not those.
+public class RecyclingSkipList<T extends Comparable<T>> implements LockFreeSet<T> {
+    /* Number of retirements between attempts to advance the epoch and reclaim limbo */
+    private static final int RECLAIM_INTERVAL = 64;
+
+    private final int maxLevel;
+    /* Called after every failed CAS before it is retried */
+    private final BackoffPolicy backoff;
+    /* Highest top level of any node inserted since the last reset; searches start here */
+    private final AtomicInteger height = new AtomicInteger(0);
+
+    private final Node<T> head;
+    private final Node<T> tail;
+
+    /* Whether removed nodes are recycled; if not, the list behaves like a buffered LockFreeSkipList */
+    private final boolean recycle;
+    private final EpochManager epochs;
+    private final ThreadState<T>[] states;
+
+    // Per-thread state for threadIds 0 to threads - 1, with towers of at most maxLevel levels
+    // above the bottom one (see LockFreeSkipList.levelsFor()).
+    public RecyclingSkipList(int threads, int maxLevel, boolean recycle) {
+        this(threads, maxLevel, recycle, BackoffPolicy.NONE);
+    }
+
+    @SuppressWarnings("unchecked")
+    public RecyclingSkipList(int threads, int maxLevel, boolean recycle, BackoffPolicy backoff) {
+        this.maxLevel = maxLevel;
+        this.backoff = backoff;
+        this.recycle = recycle;
+        head = new Node<T>(null, maxLevel);
+        tail = new Node<T>(null, maxLevel);
+        for (int i = 0; i < head.next.length; i++) {
+            head.next[i] = new AtomicMarkableReference<Node<T>>(tail, false);
+        }
+        epochs = new EpochManager(threads);
+        states = (ThreadState<T>[]) new ThreadState[threads];
+        for (int i = 0; i < threads; i++) {
+            states[i] = new ThreadState<T>(maxLevel);
+        }
+    }
+
+    private static final class Node<T> {
+        private T value;
+        private final AtomicMarkableReference<Node<T>>[] next;
+        private final int topLevel;
+        // Cleanups still owed before the node may be retired: one by the thread that linked it
+        // and one by the thread that removed it. Whoever brings it to zero retires the node.
+        private final AtomicInteger pendingCleanups = new AtomicInteger(2);
+        // Epoch at which the node was retired
+        private long retireEpoch;
+
+        @SuppressWarnings("unchecked")
+        public Node(T x, int height) {
+            value = x;
+            next = (AtomicMarkableReference<Node<T>>[])new AtomicMarkableReference[height + 1];
+            for (int i = 0; i < next.length; i++) {
+                next[i] = new AtomicMarkableReference<Node<T>>(null, false);
+            }
+            topLevel = height;
+        }
+    }
+
+    private static final class ThreadState<T> {
+        private final Node<T>[] preds;
+        private final Node<T>[] succs;
+        private final boolean[] marked = {false};
+        // Retired nodes in retirement order, waiting for their epoch to become safe
+        private final ArrayDeque<Node<T>> limbo = new ArrayDeque<>();
+        // Reusable nodes indexed by topLevel
+        private final ArrayDeque<Node<T>>[] free;
+        private int retiredSinceReclaim = 0;
+
+        @SuppressWarnings("unchecked")
+        public ThreadState(int maxLevel) {
+            preds = (Node<T>[]) new Node[maxLevel + 1];
+            succs = (Node<T>[]) new Node[maxLevel + 1];
+            free = (ArrayDeque<Node<T>>[]) new ArrayDeque[maxLevel + 1];
+            for (int i = 0; i <= maxLevel; i++) {
+                free[i] = new ArrayDeque<>();
+            }
+        }
+    }
+
+    /* Returns a level between 0 to maxLevel,
+     * P[randomLevel() = x] = 1/2^(x+1), for x < maxLevel.
+     */
+    private int randomLevel() {
+        int r = ThreadLocalRandom.current().nextInt();
+        int level = 0;
+        r &= (1 << maxLevel) - 1;
+        while ((r & 1) != 0) {
+            r >>>= 1;
+            level++;
+        }
+        return level;
+    }
+
+    /* Raises height to at least level before a node of that height is inserted,
+     * so every find() on its behalf fills in preds and succs up to its top level.
+     */
+    private void raiseHeight(int level) {
+        int current = height.get();
+        while (current < level && !height.compareAndSet(current, level)) {
+            current = height.get();
+        }
+    }
+
+    private Node<T> allocate(ThreadState<T> state, T x, int topLevel) {
+        Node<T> node = recycle ? state.free[topLevel].poll() : null;
+        if (node == null) {
+            return new Node<T>(x, topLevel);
+        }
+        // The tower is overwritten by add() before the node is published
+        node.value = x;
+        node.pendingCleanups.set(2);
+        return node;
+    }
+
+    // Called once per cleanup owed on a node that is no longer (or never was) reachable at any level
+    private void finishCleanup(ThreadState<T> state, Node<T> node) {
+        if (!recycle || node.pendingCleanups.decrementAndGet() != 0) {
+            return;
+        }
+        node.retireEpoch = epochs.current();
+        state.limbo.add(node);
+        if (++state.retiredSinceReclaim >= RECLAIM_INTERVAL) {
+            state.retiredSinceReclaim = 0;
+            epochs.tryAdvance();
+            reclaim(state);
+        }
+    }
+
+    private void reclaim(ThreadState<T> state) {
+        Node<T> node = state.limbo.peek();
+        while (node != null && epochs.isSafe(node.retireEpoch)) {
+            state.limbo.poll();
+            node.value = null;
+            state.free[node.topLevel].push(node);
+            node = state.limbo.peek();
+        }
+    }
+
+    public boolean add(int threadId, T x) {
+        if (!recycle) {
+            return insert(states[threadId], x);
+        }
+        epochs.enter(threadId);
+        try {
+            return insert(states[threadId], x);
+        } finally {
+            epochs.exit(threadId);
+        }
+    }
+
+    public boolean remove(int threadId, T x) {
+        if (!recycle) {
+            return delete(states[threadId], x);
+        }
+        epochs.enter(threadId);
+        try {
+            return delete(states[threadId], x);
+        } finally {
+            epochs.exit(threadId);
+        }
+    }
+
+    public boolean contains(int threadId, T x) {
+        if (!recycle) {
+            return search(states[threadId], x);
+        }
+        epochs.enter(threadId);
+        try {
+            return search(states[threadId], x);
+        } finally {
+            epochs.exit(threadId);
+        }
+    }
+
+    private boolean insert(ThreadState<T> state, T x) {
+        int topLevel = randomLevel();
+        raiseHeight(topLevel);
+        int bottomLevel = 0;
+        int failures = 0;
+        Node<T>[] preds = state.preds;
+        Node<T>[] succs = state.succs;
+        boolean[] marked = state.marked;
+        Node<T> newNode = null;
+        while (true) {
+            boolean found = find(x, preds, succs, marked);
+            if (found) {
+                if (newNode != null) {
+                    // Never published, so it can go straight back to the free list
+                    newNode.value = null;
+                    state.free[topLevel].push(newNode);
+                }
+                return false;
+            } else {
+                if (newNode == null) {
+                    newNode = allocate(state, x, topLevel);
+                }
+                for (int level = bottomLevel; level <= topLevel; level++) {
+                    Node<T> succ = succs[level];
+                    newNode.next[level].set(succ, false);
+                }
+                Node<T> pred = preds[bottomLevel];
+                Node<T> succ = succs[bottomLevel];
+                if (!pred.next[bottomLevel].compareAndSet(succ, newNode, false, false)) {
+                    backoff.backoff(++failures);
+                    continue;
+                }
+link:
+                for (int level = bottomLevel + 1; level <= topLevel; level++) {
+                    while (true) {
+                        // Stop linking a node that is already being removed
+                        if (newNode.next[bottomLevel].isMarked())
+                            break link;
+                        pred = preds[level];
+                        succ = succs[level];
+                        // After a failed CAS the successor written before publishing may have been
+                        // retired; linking past it would make a recycled node reachable again.
+                        Node<T> oldSucc = newNode.next[level].get(marked);
+                        if (marked[0])
+                            break link;
+                        if (oldSucc != succ && !newNode.next[level].compareAndSet(oldSucc, succ, false, false))
+                            continue;
+                        if (pred.next[level].compareAndSet(succ, newNode, false, false))
+                            break;
+                        backoff.backoff(++failures);
+                        find(x, preds, succs, marked);
+                    }
+                }
+                // A remover whose cleanup ran before our last link relies on this find() to unlink it
+                if (newNode.next[bottomLevel].isMarked()) {
+                    find(x, preds, succs, marked);
+                }
+                finishCleanup(state, newNode);
+                return true;
+            }
+        }
+    }
+
+    private boolean delete(ThreadState<T> state, T x) {
+        int bottomLevel = 0;
+        int failures = 0;
+        Node<T>[] preds = state.preds;
+        Node<T>[] succs = state.succs;
+        boolean[] marked = state.marked;
+        Node<T> succ;
+        while (true) {
+            boolean found = find(x, preds, succs, marked);
+            if (!found) {
+                return false;
+            } else {
+                Node<T> nodeToRemove = succs[bottomLevel];
+                for (int level = nodeToRemove.topLevel; level >= bottomLevel+1; level--) {
+                    succ = nodeToRemove.next[level].get(marked);
+                    while (!marked[0]) {
+                        if (!nodeToRemove.next[level].compareAndSet(succ, succ, false, true))
+                            backoff.backoff(++failures);
+                        succ = nodeToRemove.next[level].get(marked);
+                    }
+                }
+                succ = nodeToRemove.next[bottomLevel].get(marked);
+                while (true) {
+                    boolean iMarkedIt = nodeToRemove.next[bottomLevel].compareAndSet(succ, succ, false, true);
+                    succ = succs[bottomLevel].next[bottomLevel].get(marked);
+                    if (iMarkedIt) {
+                        find(x, preds, succs, marked);
+                        finishCleanup(state, nodeToRemove);
+                        return true;
+                    } else if (marked[0]) {
+                        return false;
+                    }
+                    backoff.backoff(++failures);
+                }
+            }
+        }
+    }
+
+    private boolean search(ThreadState<T> state, T x) {
+        int bottomLevel = 0;
+        boolean[] marked = state.marked;
+        Node<T> pred = head;
+        Node<T> curr = null;
+        Node<T> succ = null;
+        for (int level = height.get(); level >= bottomLevel; level--) {
+            curr = pred.next[level].getReference();
+            while (true) {
+                succ = curr.next[level].get(marked);
+                while (marked[0]) {
+                    curr = succ;
+                    succ = curr.next[level].get(marked);
+                }
+                if (curr.value != null && x.compareTo(curr.value) > 0) {
+                    pred = curr;
+                    curr = succ;
+                } else {
+                    break;
+                }
+            }
+        }
+        return curr.value != null && x.compareTo(curr.value) == 0;
+    }
+
+    private boolean find(T x, Node<T>[] preds, Node<T>[] succs, boolean[] marked) {
+        int bottomLevel = 0;
+        boolean snip;
+        int failures = 0;
+        Node<T> pred = null;
+        Node<T> curr = null;
+        Node<T> succ = null;
+retry:
+        while (true) {
+            pred = head;
+            for (int level = height.get(); level >= bottomLevel; level--) {
+                curr = pred.next[level].getReference();
+                while (true) {
+                    succ = curr.next[level].get(marked);
+                    while (marked[0]) {
+                        snip = pred.next[level].compareAndSet(curr, succ, false, false);
+                        if (!snip) {
+                            backoff.backoff(++failures);
+                            continue retry;
+                        }
+                        curr = succ;
+                        succ = curr.next[level].get(marked);
+                    }
+                    if (curr.value != null && x.compareTo(curr.value) > 0) {
+                        pred = curr;
+                        curr = succ;
+                    } else {
+                        break;
+                    }
+                }
+
+                preds[level] = pred;
+                succs[level] = curr;
+            }
+            return curr.value != null && x.compareTo(curr.value) == 0;
+        }
+    }
+
+    public Log.Entry[] getLog() {
+        // This variant does not record linearization points.
+        return null;
+    }
+
+    // Must not run concurrently with other operations.
+    public void reset() {
+        if (recycle) {
+            // Hand every node still in the list, and every retired one, to the free lists
+            int owner = 0;
+            Node<T> curr = head.next[0].getReference();
+            while (curr != tail) {
+                Node<T> succ = curr.next[0].getReference();
+                curr.value = null;
+                states[owner].free[curr.topLevel].push(curr);
+                owner = (owner + 1) % states.length;
+                curr = succ;
+            }
+            for (ThreadState<T> state : states) {
+                Node<T> node;
+                while ((node = state.limbo.poll()) != null) {
+                    node.value = null;
+                    state.free[node.topLevel].push(node);
+                }
+                state.retiredSinceReclaim = 0;
+            }
+        }
+        height.set(0);
+        for (int i = 0; i < head.next.length; i++) {
+            head.next[i] = new AtomicMarkableReference<Node<T>>(tail, false);
+        }
+    }
+}
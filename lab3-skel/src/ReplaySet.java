@@ -0,0 +1,77 @@
+// The sequential set that validators replay a log into, over primitive int keys.
+// Open addressing with linear probing: a key keeps its slot once inserted, and present[]
+// says whether it is in the set, so removing never has to delete a slot.
+public class ReplaySet {
+    private int[] keys;
+    private boolean[] used;
+    private boolean[] present;
+    private int mask;
+    private int slots = 0;
+
+    // Sized for expectedKeys distinct keys without growing.
+    public ReplaySet(int expectedKeys) {
+        allocate(Integer.highestOneBit(Math.max(2 * expectedKeys, 1)) << 1);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        used = new boolean[capacity];
+        present = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    // Applies the operation and returns what it returns on a sequential set.
+    public boolean apply(Log.Method method, int key) {
+        int slot = slot(key);
+        boolean wasPresent = present[slot];
+        switch (method) {
+            case ADD:
+                present[slot] = true;
+                return !wasPresent;
+            case REMOVE:
+                present[slot] = false;
+                return wasPresent;
+            case CONTAINS:
+                return wasPresent;
+            default:
+                return false;
+        }
+    }
+
+    /* The slot of key, inserting it if needed; doubles the table once it is half full */
+    private int slot(int key) {
+        int slot = (key * 0x9E3779B9) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (2 * (slots + 1) > keys.length) {
+            grow();
+            return slot(key);
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        slots++;
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        boolean[] oldUsed = used;
+        boolean[] oldPresent = present;
+        allocate(2 * oldKeys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = (oldKeys[i] * 0x9E3779B9) & mask;
+                while (used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                present[slot] = oldPresent[i];
+            }
+        }
+    }
+}
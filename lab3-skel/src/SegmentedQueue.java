@@ -0,0 +1,144 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Lock-free unbounded queue of linked array segments, the FAA-array queue of Rojas and LCRQ
+// without the ring. enq() claims a slot of the tail segment with getAndIncrement and fills it,
+// so producers only race on the fetch-and-add; a CAS on a segment's next is needed only when
+// the tail segment is full and a new one is linked. deq() claims slots from the head segment
+// the same way and takes the value, leaving TAKEN behind so that a producer that claimed the
+// slot too late moves on to another one.
+// Unlike LockFreeQueue an enq() allocates no node, only a new segment every SEGMENT_SIZE values.
+public class SegmentedQueue<T> implements ConcurrentQueue<T> {
+    /* Slots per segment */
+    static final int SEGMENT_SIZE = 1024;
+    /* Left in a slot by deq(), never a value */
+    private static final Object TAKEN = new Object();
+
+    private final AtomicReference<Segment> head;
+    private final AtomicReference<Segment> tail;
+
+    public SegmentedQueue() {
+        Segment segment = new Segment(null);
+        head = new AtomicReference<>(segment);
+        tail = new AtomicReference<>(segment);
+    }
+
+    private static final class Segment {
+        /* Next slot for enq() and deq(); both go past SEGMENT_SIZE once the segment is used up */
+        final AtomicInteger enqIndex;
+        final AtomicInteger deqIndex = new AtomicInteger(0);
+        final AtomicReferenceArray<Object> items = new AtomicReferenceArray<>(SEGMENT_SIZE);
+        final AtomicReference<Segment> next = new AtomicReference<>(null);
+
+        // A segment that holds first in its first slot, or an empty one if first is null.
+        Segment(Object first) {
+            if (first == null) {
+                enqIndex = new AtomicInteger(0);
+            } else {
+                enqIndex = new AtomicInteger(1);
+                items.lazySet(0, first);
+            }
+        }
+    }
+
+    public void enq(T value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        while (true) {
+            Segment last = tail.get();
+            int index = last.enqIndex.getAndIncrement();
+            if (index < SEGMENT_SIZE) {
+                // Fails only if a dequeuer found the slot empty and took it first
+                if (last.items.compareAndSet(index, null, value)) {
+                    return;
+                }
+                continue;
+            }
+            // The tail segment is full: link a new one holding value, or help the one linked
+            if (last == tail.get()) {
+                Segment next = last.next.get();
+                if (next == null) {
+                    Segment segment = new Segment(value);
+                    if (last.next.compareAndSet(null, segment)) {
+                        tail.compareAndSet(last, segment);
+                        return;
+                    }
+                } else {
+                    tail.compareAndSet(last, next);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public T deq() throws IllegalStateException {
+        while (true) {
+            Segment first = head.get();
+            if (first.deqIndex.get() >= first.enqIndex.get() && first.next.get() == null) {
+                throw new IllegalStateException();
+            }
+            int index = first.deqIndex.getAndIncrement();
+            if (index >= SEGMENT_SIZE) {
+                // Used up: move on to the next segment if there is one
+                Segment next = first.next.get();
+                if (next == null) {
+                    throw new IllegalStateException();
+                }
+                head.compareAndSet(first, next);
+                continue;
+            }
+            // Takes the slot even if its producer has not filled it yet; that producer retries
+            Object value = first.items.getAndSet(index, TAKEN);
+            if (value != null) {
+                return (T) value;
+            }
+        }
+    }
+
+    // Copies each segment's filled slots in one pass, into an array sized from the segment
+    // indices, without the intermediate list of LockFreeQueue.toArray().
+    @SuppressWarnings("unchecked")
+    public T[] toArray(T[] a) {
+        int bound = 0;
+        for (Segment s = head.get(); s != null; s = s.next.get()) {
+            bound += slots(s.enqIndex) - slots(s.deqIndex);
+        }
+        T[] result = a.length >= bound ? a : Arrays.copyOf(a, bound);
+        int size = 0;
+        for (Segment s = head.get(); s != null; s = s.next.get()) {
+            for (int i = slots(s.deqIndex), end = slots(s.enqIndex); i < end; i++) {
+                Object value = s.items.get(i);
+                if (value != null && value != TAKEN) {
+                    result[size++] = (T) value;
+                }
+            }
+        }
+        if (size < bound) {
+            result = result == a ? result : Arrays.copyOf(result, size);
+        }
+        if (size < result.length) {
+            result[size] = null;
+        }
+        return result;
+    }
+
+    private static int slots(AtomicInteger index) {
+        return Math.min(index.get(), SEGMENT_SIZE);
+    }
+
+    public void clear() {
+        Segment segment = new Segment(null);
+        while (true) {
+            Segment currHead = head.get();
+            Segment currTail = tail.get();
+            // Try to update tail, but don't fail if it doesn't work
+            if (head.compareAndSet(currHead, segment)) {
+                tail.compareAndSet(currTail, segment);
+                return;
+            }
+        }
+    }
+}
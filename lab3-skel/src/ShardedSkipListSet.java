@@ -0,0 +1,178 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+// Splits the key space into range shards, each its own LockFreeSet, so threads working on
+// different key ranges do not share a head tower. Shard i holds the keys in
+// [bounds[i - 1], bounds[i]), with the first and last shards open towards the ends of the int range.
+// Every operation touches exactly one shard, so the shards together behave like one set.
+public class ShardedSkipListSet implements LockFreeSet<Integer>, ColumnarLogged {
+    /* Default number of shards */
+    public static final int SHARDS = 8;
+
+    private final int[] bounds;
+    private final LockFreeSet<Integer>[] shards;
+
+    // bounds must be strictly increasing; shards.length == bounds.length + 1.
+    // newShard(i) creates shard i.
+    @SuppressWarnings("unchecked")
+    public ShardedSkipListSet(int[] bounds, IntFunction<LockFreeSet<Integer>> newShard) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i - 1] >= bounds[i]) {
+                throw new IllegalArgumentException("Shard bounds must be strictly increasing");
+            }
+        }
+        this.bounds = bounds.clone();
+        shards = (LockFreeSet<Integer>[]) new LockFreeSet[bounds.length + 1];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = newShard.apply(i);
+        }
+    }
+
+    /* Bounds splitting [min, max) into `shards` ranges of equal width. */
+    public static int[] fixedBounds(int shards, int min, int max) {
+        int[] bounds = new int[shards - 1];
+        for (int i = 1; i < shards; i++) {
+            bounds[i - 1] = (int) (min + (long) (max - min) * i / shards);
+        }
+        return distinct(bounds);
+    }
+
+    /* Bounds at the quantiles of `samples` keys drawn from values, so each shard receives about the
+     * same share of operations. A copy of values is sampled, leaving the caller's sequence untouched.
+     * Quantiles that coincide, as they do for very narrow distributions, are merged, so fewer
+     * shards than requested may be used.
+     */
+    public static int[] sampledBounds(int shards, Distribution values, int samples) {
+        Distribution sampler = values.copy();
+        int[] keys = new int[samples];
+        for (int i = 0; i < samples; i++) {
+            keys[i] = sampler.next();
+        }
+        Arrays.sort(keys);
+        int[] bounds = new int[shards - 1];
+        for (int i = 1; i < shards; i++) {
+            bounds[i - 1] = keys[(int) ((long) samples * i / shards)];
+        }
+        return distinct(bounds);
+    }
+
+    private static int[] distinct(int[] sortedBounds) {
+        return Arrays.stream(sortedBounds).distinct().toArray();
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    private int shardOf(int key) {
+        int i = Arrays.binarySearch(bounds, key);
+        // A key equal to a bound belongs to the shard that bound starts
+        return i >= 0 ? i + 1 : -(i + 1);
+    }
+
+    public boolean add(int threadId, Integer x) {
+        return shards[shardOf(x)].add(threadId, x);
+    }
+
+    public boolean remove(int threadId, Integer x) {
+        return shards[shardOf(x)].remove(threadId, x);
+    }
+
+    public boolean contains(int threadId, Integer x) {
+        return shards[shardOf(x)].contains(threadId, x);
+    }
+
+    /* Ordered queries, available when the shards are LockFreeSkipLists. They are weakly
+     * consistent like LockFreeSkipList's own, and visit the shards in key order.
+     */
+
+    /* Returns the smallest element >= x, or null if there is none. */
+    public Integer ceiling(Integer x) {
+        for (int i = shardOf(x); i < shards.length; i++) {
+            Integer found = ordered(i).ceiling(x);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    /* Returns the largest element <= x, or null if there is none. */
+    public Integer floor(Integer x) {
+        for (int i = shardOf(x); i >= 0; i--) {
+            Integer found = ordered(i).floor(x);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    /* Returns the number of elements in [lo, hi). */
+    public int rangeCount(Integer lo, Integer hi) {
+        int[] count = {0};
+        forEachInRange(lo, hi, value -> count[0]++);
+        return count[0];
+    }
+
+    /* Passes every element in [lo, hi) to action in ascending order, shard by shard. */
+    public void forEachInRange(Integer lo, Integer hi, Consumer<? super Integer> action) {
+        if (lo.compareTo(hi) >= 0) {
+            return;
+        }
+        int last = shardOf(hi - 1);
+        for (int i = shardOf(lo); i <= last; i++) {
+            ordered(i).forEachInRange(lo, hi, action);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private LockFreeSkipList<Integer> ordered(int shard) {
+        if (!(shards[shard] instanceof LockFreeSkipList)) {
+            throw new UnsupportedOperationException("Ordered queries need LockFreeSkipList shards");
+        }
+        return (LockFreeSkipList<Integer>) shards[shard];
+    }
+
+    public Log.Entry[] getLog() {
+        // Each operation is logged by the one shard it touched, stamped at its linearization point
+        // by the shards' Clock, so ordering the union by timestamp gives a history of the whole
+        // set as long as all shards share one clock.
+        List<Log.Entry> mergedLog = new ArrayList<>();
+        for (LockFreeSet<Integer> shard : shards) {
+            Log.Entry[] log = shard.getLog();
+            if (log == null) {
+                // This shard type does not record linearization points.
+                return null;
+            }
+            mergedLog.addAll(Arrays.asList(log));
+        }
+
+        Log.Entry[] sortedLog = mergedLog.toArray(new Log.Entry[0]);
+        Arrays.sort(sortedLog, Comparator.comparingLong(e -> e.timestamp));
+        return sortedLog;
+    }
+
+    public void reserveLog(int entriesPerThread) {
+        for (LockFreeSet<Integer> shard : shards) {
+            if (shard instanceof ColumnarLogged) {
+                ((ColumnarLogged) shard).reserveLog(entriesPerThread);
+            }
+        }
+    }
+
+    // The shards keep a log each, so there is no single one; validation merges them in getLog().
+    public ColumnarLog columnarLog() {
+        return null;
+    }
+
+    public void reset() {
+        for (LockFreeSet<Integer> shard : shards) {
+            shard.reset();
+        }
+    }
+}
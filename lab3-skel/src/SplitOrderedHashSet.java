@@ -0,0 +1,339 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Lock-free split-ordered hash set (Shalev and Shavit, "Split-ordered lists", HSLS section 13.3.3).
+// All items live in one lock-free list sorted by the bit-reversed hash. Bucket b is a sentinel
+// node in that list, reached through a table of bucket references, and a lookup only walks the
+// items between its bucket's sentinel and the next one. The bucket count doubles when the average
+// bucket holds more than LOAD_FACTOR items; doubling copies nothing, each new bucket's sentinel is
+// spliced into the list by the first operation that needs it.
+// The table is a directory of fixed-size segments, allocated as buckets are first touched.
+// With logging enabled every operation records its linearization point in a per-thread log,
+// at the same points as LocalLogSkipList.
+public class SplitOrderedHashSet implements LockFreeSet<Integer>, ColumnarLogged {
+    /* Average number of items per bucket before the bucket count doubles */
+    private static final int LOAD_FACTOR = 2;
+    /* Bucket count after construction or reset */
+    private static final int INITIAL_BUCKETS = 2;
+
+    /* Bucket references per segment, and segments in the directory */
+    private static final int SEGMENT_BITS = 10;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENTS = 1 << 12;
+    private static final int MAX_BUCKETS = SEGMENT_SIZE * SEGMENTS;
+
+    /* Called after every failed CAS before it is retried */
+    private final BackoffPolicy backoff;
+    /* Source of linearization timestamps */
+    private final Clock clock;
+
+    /* Sentinel of bucket 0, the head of the list, and the tail that ends it */
+    private final Node head;
+    private final Node tail;
+    private final AtomicReferenceArray<AtomicReferenceArray<Node>> segments =
+            new AtomicReferenceArray<>(SEGMENTS);
+    private final AtomicInteger bucketCount = new AtomicInteger(INITIAL_BUCKETS);
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /* Per-thread search buffers indexed by threadId, or null to allocate them per operation */
+    private final Scratch[] scratch;
+
+    /* Per-thread logs indexed by threadId, or null if logging is disabled */
+    private final ColumnarLog threadLogs;
+
+    public SplitOrderedHashSet() {
+        this(0, false);
+    }
+
+    public SplitOrderedHashSet(int threads, boolean logged) {
+        this(threads, logged, BackoffPolicy.NONE);
+    }
+
+    // Reuses one set of search buffers per thread, for threadIds 0 to threads - 1.
+    // With threads == 0 the buffers are allocated per operation instead; logging needs threads > 0.
+    public SplitOrderedHashSet(int threads, boolean logged, BackoffPolicy backoff) {
+        this(threads, logged, backoff, Clock.NANO);
+    }
+
+    // Linearization points are timestamped with clock.
+    public SplitOrderedHashSet(int threads, boolean logged, BackoffPolicy backoff, Clock clock) {
+        if (logged && threads <= 0) {
+            throw new IllegalArgumentException("Logging needs one log per thread, threads must be > 0");
+        }
+        this.backoff = backoff;
+        this.clock = clock;
+        tail = new Node(Long.MAX_VALUE, null, null);
+        head = new Node(sentinelKey(0), null, tail);
+        setBucket(0, head);
+        if (threads > 0) {
+            scratch = new Scratch[threads];
+            for (int i = 0; i < threads; i++) {
+                scratch[i] = new Scratch();
+            }
+        } else {
+            scratch = null;
+        }
+        if (logged) {
+            threadLogs = new ColumnarLog(threads);
+        } else {
+            threadLogs = null;
+        }
+    }
+
+    private static final class Node {
+        /* Split-order key: the bit-reversed hash, shifted left, with the low bit set for items */
+        private final long key;
+        /* null for sentinels and the tail */
+        private final Integer value;
+        private final AtomicMarkableReference<Node> next;
+        // Linearization timestamp of the remove that marked the node
+        private volatile long removalTimestamp = -1;
+
+        public Node(long key, Integer value, Node next) {
+            this.key = key;
+            this.value = value;
+            this.next = new AtomicMarkableReference<Node>(next, false);
+        }
+    }
+
+    // pred/curr filled in by find(), the holder for AtomicMarkableReference.get()
+    // and the time find() last read curr
+    private static final class Scratch {
+        private Node pred;
+        private Node curr;
+        private final boolean[] marked = {false};
+        private long timestamp = -1;
+    }
+
+    private Scratch scratch(int threadId) {
+        return scratch != null ? scratch[threadId] : new Scratch();
+    }
+
+    // Items sort after their bucket's sentinel and before the sentinel of any later bucket.
+    private static long itemKey(int hash) {
+        return (Integer.toUnsignedLong(Integer.reverse(hash)) << 1) | 1;
+    }
+
+    private static long sentinelKey(int bucket) {
+        return Integer.toUnsignedLong(Integer.reverse(bucket)) << 1;
+    }
+
+    private void addLogEntry(int threadId, Log.Method method, Integer x, boolean ret, long timestamp) {
+        if (threadLogs != null) {
+            threadLogs.append(threadId, method, x.hashCode(), ret, timestamp);
+        }
+    }
+
+    private long timestamp(int threadId) {
+        return threadLogs != null ? clock.now(threadId) : -1;
+    }
+
+    public boolean add(int threadId, Integer x) {
+        int hash = x.hashCode();
+        long key = itemKey(hash);
+        Node start = bucket(threadId, hash);
+        Scratch buffers = scratch(threadId);
+        int failures = 0;
+        while (true) {
+            if (find(threadId, start, key, buffers)) {
+                // Unsuccessful add - linearisation point was in find()
+                addLogEntry(threadId, Log.Method.ADD, x, false, buffers.timestamp);
+                return false;
+            }
+            Node node = new Node(key, x, buffers.curr);
+            // Linearisation point for successful add: capture timestamp immediately before CAS
+            long timestamp = timestamp(threadId);
+            if (buffers.pred.next.compareAndSet(buffers.curr, node, false, false)) {
+                addLogEntry(threadId, Log.Method.ADD, x, true, timestamp);
+                grow(size.incrementAndGet());
+                return true;
+            }
+            backoff.backoff(++failures);
+        }
+    }
+
+    public boolean remove(int threadId, Integer x) {
+        int hash = x.hashCode();
+        long key = itemKey(hash);
+        Node start = bucket(threadId, hash);
+        Scratch buffers = scratch(threadId);
+        boolean[] marked = buffers.marked;
+        int failures = 0;
+        while (true) {
+            if (!find(threadId, start, key, buffers)) {
+                // Unsuccessful remove - linearisation point was in find()
+                addLogEntry(threadId, Log.Method.REMOVE, x, false, buffers.timestamp);
+                return false;
+            }
+            Node victim = buffers.curr;
+            Node succ = victim.next.getReference();
+            // Capture timestamp immediately before attempting to mark
+            long timestamp = timestamp(threadId);
+            if (victim.next.compareAndSet(succ, succ, false, true)) {
+                // This thread marked it - this is the linearisation point
+                victim.removalTimestamp = timestamp;
+                addLogEntry(threadId, Log.Method.REMOVE, x, true, timestamp);
+                size.decrementAndGet();
+                buffers.pred.next.compareAndSet(victim, succ, false, false);
+                return true;
+            }
+            victim.next.get(marked);
+            if (marked[0]) {
+                // Another thread marked it - use their linearisation point
+                long otherThreadTimestamp = victim.removalTimestamp;
+                if (otherThreadTimestamp == -1) {
+                    // Race condition: use current timestamp as approximation
+                    otherThreadTimestamp = timestamp;
+                }
+                addLogEntry(threadId, Log.Method.REMOVE, x, false, otherThreadTimestamp);
+                return false;
+            }
+            // A node was added after it, retry
+            backoff.backoff(++failures);
+        }
+    }
+
+    // Wait-free: walks from the bucket's sentinel without snipping marked nodes.
+    public boolean contains(int threadId, Integer x) {
+        int hash = x.hashCode();
+        long key = itemKey(hash);
+        Node curr = bucket(threadId, hash);
+        long timestamp = timestamp(threadId);
+        while (curr.key < key) {
+            curr = curr.next.getReference();
+            timestamp = timestamp(threadId);
+        }
+        boolean result = curr.key == key && !curr.next.isMarked();
+        addLogEntry(threadId, Log.Method.CONTAINS, x, result, timestamp);
+        return result;
+    }
+
+    /* Searches from start for key, snipping out marked nodes on the way. Leaves in buffers the last
+     * node before key and the first node at or after it, and returns whether that node holds key.
+     * When logging, buffers.timestamp is the time curr was read.
+     */
+    private boolean find(int threadId, Node start, long key, Scratch buffers) {
+        boolean[] marked = buffers.marked;
+        int failures = 0;
+        retry:
+        while (true) {
+            Node pred = start;
+            Node curr = pred.next.getReference();
+            buffers.timestamp = timestamp(threadId);
+            while (true) {
+                Node succ = curr.next.get(marked);
+                while (marked[0]) {
+                    if (!pred.next.compareAndSet(curr, succ, false, false)) {
+                        backoff.backoff(++failures);
+                        continue retry;
+                    }
+                    curr = succ;
+                    buffers.timestamp = timestamp(threadId);
+                    succ = curr.next.get(marked);
+                }
+                if (curr.key >= key) {
+                    buffers.pred = pred;
+                    buffers.curr = curr;
+                    return curr.key == key;
+                }
+                pred = curr;
+                curr = succ;
+                buffers.timestamp = timestamp(threadId);
+            }
+        }
+    }
+
+    /* Doubles the bucket count if the set has grown past LOAD_FACTOR items per bucket.
+     * New buckets are initialized lazily by bucket().
+     */
+    private void grow(int items) {
+        int buckets = bucketCount.get();
+        if (items / buckets > LOAD_FACTOR && buckets < MAX_BUCKETS) {
+            bucketCount.compareAndSet(buckets, buckets * 2);
+        }
+    }
+
+    /* The sentinel of hash's bucket, inserting it into the list if no one has yet */
+    private Node bucket(int threadId, int hash) {
+        int bucket = hash & (bucketCount.get() - 1);
+        Node sentinel = getBucket(bucket);
+        return sentinel != null ? sentinel : initializeBucket(threadId, bucket);
+    }
+
+    private Node getBucket(int bucket) {
+        AtomicReferenceArray<Node> segment = segments.get(bucket >>> SEGMENT_BITS);
+        return segment != null ? segment.get(bucket & (SEGMENT_SIZE - 1)) : null;
+    }
+
+    private void setBucket(int bucket, Node sentinel) {
+        int index = bucket >>> SEGMENT_BITS;
+        AtomicReferenceArray<Node> segment = segments.get(index);
+        if (segment == null) {
+            segments.compareAndSet(index, null, new AtomicReferenceArray<Node>(SEGMENT_SIZE));
+            segment = segments.get(index);
+        }
+        segment.compareAndSet(bucket & (SEGMENT_SIZE - 1), null, sentinel);
+    }
+
+    // The parent of a bucket is the bucket it was split from: the same index without its top bit.
+    // Its sentinel precedes this bucket's sentinel in the list, so the search for the new
+    // sentinel starts there.
+    private Node initializeBucket(int threadId, int bucket) {
+        int parent = bucket & ~Integer.highestOneBit(bucket);
+        Node start = getBucket(parent);
+        if (start == null) {
+            start = initializeBucket(threadId, parent);
+        }
+        long key = sentinelKey(bucket);
+        Scratch buffers = new Scratch();
+        int failures = 0;
+        Node sentinel;
+        while (true) {
+            if (find(threadId, start, key, buffers)) {
+                // Another thread inserted it first
+                sentinel = buffers.curr;
+                break;
+            }
+            sentinel = new Node(key, null, buffers.curr);
+            if (buffers.pred.next.compareAndSet(buffers.curr, sentinel, false, false)) {
+                break;
+            }
+            backoff.backoff(++failures);
+        }
+        setBucket(bucket, sentinel);
+        return getBucket(bucket);
+    }
+
+    public Log.Entry[] getLog() {
+        if (threadLogs == null) {
+            // Logging is disabled for this set.
+            return null;
+        }
+        return threadLogs.toEntries();
+    }
+
+    public void reserveLog(int entriesPerThread) {
+        if (threadLogs != null) {
+            threadLogs.reserve(entriesPerThread);
+        }
+    }
+
+    public ColumnarLog columnarLog() {
+        return threadLogs;
+    }
+
+    // Must not run concurrently with other operations.
+    public void reset() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments.set(i, null);
+        }
+        head.next.set(tail, false);
+        setBucket(0, head);
+        bucketCount.set(INITIAL_BUCKETS);
+        size.set(0);
+        if (threadLogs != null) {
+            threadLogs.clear();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Validates a ColumnarLog in the background while the run is still going, see
+// ColumnarLog.stream(). Each thread publishes its log in sealed segments, each with a watermark:
+// the newest timestamp in the segment, which its own later entries will not precede. Every entry
+// older than the smallest watermark over all threads has therefore been published, so the validator
+// replays that prefix in timestamp order into one ReplaySet, counts discrepancies and drops it.
+// Only entries newer than the watermark are kept, and emptied segments go back to their thread.
+// A thread's entries can still be a little older than its last watermark, e.g. a failed remove
+// logged with the remover's timestamp. Such late entries are replayed as they arrive and counted.
+public class StreamingValidator {
+    /* Sleep between rounds that found nothing new */
+    private static final long POLL_NANOS = 1_000_000;
+    /* Time between two progress reports */
+    private static final long REPORT_NANOS = 1_000_000_000L;
+    /* Free segments kept per thread */
+    private static final int MAX_FREE = 4;
+
+    private final int threads;
+    private final ConcurrentLinkedQueue<ColumnarLog.Column>[] published;
+    private final ConcurrentLinkedQueue<ColumnarLog.Column>[] free;
+    /* Watermark of each thread's last published segment */
+    private final AtomicLongArray watermarks;
+    private final PrintStream progress;
+    private final Thread worker;
+    private volatile boolean finished = false;
+
+    /* Everything below is only written by the worker */
+    private final ReplaySet replaySet = new ReplaySet(1 << 16);
+    private long[] pendingTimestamps = new long[1024];
+    private int[] pendingArgs = new int[1024];
+    private byte[] pendingOps = new byte[1024];
+    private int pendingSize = 0;
+    private long validatedUpTo = Long.MIN_VALUE;
+    private long lastReport = System.nanoTime();
+
+    private volatile long validated = 0;
+    private volatile long discrepancies = 0;
+    private volatile long late = 0;
+    private volatile int peakPending = 0;
+
+    // One segment queue per thread, for threadIds 0 to threads - 1. Reports progress to
+    // progress about once a second if it is not null.
+    @SuppressWarnings("unchecked")
+    StreamingValidator(int threads, PrintStream progress) {
+        this.threads = threads;
+        this.progress = progress;
+        published = (ConcurrentLinkedQueue<ColumnarLog.Column>[]) new ConcurrentLinkedQueue[threads];
+        free = (ConcurrentLinkedQueue<ColumnarLog.Column>[]) new ConcurrentLinkedQueue[threads];
+        for (int t = 0; t < threads; t++) {
+            published[t] = new ConcurrentLinkedQueue<>();
+            free[t] = new ConcurrentLinkedQueue<>();
+        }
+        watermarks = new AtomicLongArray(threads);
+        for (int t = 0; t < threads; t++) {
+            watermarks.set(t, Long.MIN_VALUE);
+        }
+        worker = new Thread(this::work, "StreamingValidator");
+        worker.setDaemon(true);
+    }
+
+    void start() {
+        worker.start();
+    }
+
+    // Called by threadId only. column, if not null, is handed over until recycled().
+    void publish(int threadId, ColumnarLog.Column column, long watermark) {
+        if (column != null) {
+            published[threadId].offer(column);
+        }
+        // After the offer, so a worker that sees the watermark also finds the segment
+        watermarks.set(threadId, watermark);
+    }
+
+    // An emptied segment for threadId to reuse, or null.
+    ColumnarLog.Column recycled(int threadId) {
+        return free[threadId].poll();
+    }
+
+    // Waits until everything published has been replayed and returns the discrepancies.
+    long finish() {
+        finished = true;
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return discrepancies;
+    }
+
+    /* Entries replayed so far */
+    public long validated() {
+        return validated;
+    }
+
+    /* Discrepancies found so far */
+    public long discrepancies() {
+        return discrepancies;
+    }
+
+    /* Entries that arrived older than a prefix already replayed */
+    public long late() {
+        return late;
+    }
+
+    /* Most entries held back at once, waiting for the watermark to pass them */
+    public int peakPending() {
+        return peakPending;
+    }
+
+    private void work() {
+        while (!finished) {
+            if (!round()) {
+                LockSupport.parkNanos(POLL_NANOS);
+            }
+            report(false);
+        }
+        round();
+        report(true);
+    }
+
+    /* Takes in published segments and replays everything below the watermark.
+     * Returns false if no segment was published since the last round.
+     */
+    private boolean round() {
+        // Read before draining, so every segment sealed under the watermark is drained
+        long watermark = Long.MAX_VALUE;
+        for (int t = 0; t < threads; t++) {
+            watermark = Math.min(watermark, watermarks.get(t));
+        }
+        boolean drained = false;
+        for (int t = 0; t < threads; t++) {
+            ColumnarLog.Column column;
+            while ((column = published[t].poll()) != null) {
+                take(column);
+                column.size = 0;
+                if (free[t].size() < MAX_FREE) {
+                    free[t].offer(column);
+                }
+                drained = true;
+            }
+        }
+        peakPending = Math.max(peakPending, pendingSize);
+        if (watermark > validatedUpTo) {
+            replayBelow(watermark);
+            validatedUpTo = watermark;
+        }
+        return drained;
+    }
+
+    private void take(ColumnarLog.Column column) {
+        int size = column.size;
+        if (pendingSize + size > pendingTimestamps.length) {
+            int capacity = Math.max(2 * pendingTimestamps.length, pendingSize + size);
+            pendingTimestamps = Arrays.copyOf(pendingTimestamps, capacity);
+            pendingArgs = Arrays.copyOf(pendingArgs, capacity);
+            pendingOps = Arrays.copyOf(pendingOps, capacity);
+        }
+        System.arraycopy(column.timestamps, 0, pendingTimestamps, pendingSize, size);
+        System.arraycopy(column.args, 0, pendingArgs, pendingSize, size);
+        System.arraycopy(column.ops, 0, pendingOps, pendingSize, size);
+        pendingSize += size;
+    }
+
+    /* Replays the pending entries older than watermark in timestamp order and drops them */
+    private void replayBelow(long watermark) {
+        int[] order = new int[pendingSize];
+        int ready = 0;
+        for (int i = 0; i < pendingSize; i++) {
+            if (pendingTimestamps[i] < watermark) {
+                order[ready++] = i;
+            }
+        }
+        ParallelValidator.sort(order, 0, ready, pendingTimestamps);
+        long disc = 0;
+        long lateEntries = 0;
+        for (int k = 0; k < ready; k++) {
+            int e = order[k];
+            if (pendingTimestamps[e] < validatedUpTo) {
+                lateEntries++;
+            }
+            if (replaySet.apply(ColumnarLog.method(pendingOps[e]), pendingArgs[e]) != ColumnarLog.ret(pendingOps[e])) {
+                disc++;
+            }
+        }
+
+        // Keep the rest, in log order
+        int kept = 0;
+        for (int i = 0; i < pendingSize; i++) {
+            if (pendingTimestamps[i] >= watermark) {
+                pendingTimestamps[kept] = pendingTimestamps[i];
+                pendingArgs[kept] = pendingArgs[i];
+                pendingOps[kept] = pendingOps[i];
+                kept++;
+            }
+        }
+        pendingSize = kept;
+
+        validated += ready;
+        discrepancies += disc;
+        late += lateEntries;
+    }
+
+    private void report(boolean last) {
+        if (progress == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (last || now - lastReport >= REPORT_NANOS) {
+            progress.printf("Streaming validation: %d entries validated, %d discrepancies, %d late, %d pending%n",
+                            validated, discrepancies, late, pendingSize);
+            lastReport = now;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+// Each thread's sequence of (operation, key) pairs, materialised in primitive arrays before a run
+// so that Experiment.Task only times the set operations, see Experiment.run(threads, set, trace).
+// generate() draws the same sequences as Experiment.run(threads, opsPerThread, set, ops, values),
+// and every run of a trace replays them exactly.
+// A trace can be written to a file and read back for replay in another process. The file is a
+// HEADER_BYTES header followed, for each thread, by its keys as little-endian ints and then its
+// operations as bytes; it is read and written through memory-mapped regions.
+public class Trace {
+    /* "TRCE", then the format version */
+    static final int MAGIC = 0x45435254;
+    static final int VERSION = 1;
+    /* int magic, int version, int threads, int operations per thread */
+    static final int HEADER_BYTES = 16;
+
+    private final int[][] keys;
+    private final byte[][] ops;
+
+    private Trace(int[][] keys, byte[][] ops) {
+        this.keys = keys;
+        this.ops = ops;
+    }
+
+    // Draws opsPerThread operations for each thread from copies of ops and values seeded as in
+    // Experiment.run(), one generating thread per worker.
+    public static Trace generate(int threads, int opsPerThread, Distribution ops, Distribution values) {
+        int[][] keys = new int[threads][opsPerThread];
+        byte[][] methods = new byte[threads][opsPerThread];
+        IntStream.range(0, threads).parallel().forEach(t -> {
+            Distribution threadOps = ops.copy(t);
+            Distribution threadValues = values.copy(-t);
+            int[] threadKeys = keys[t];
+            byte[] threadMethods = methods[t];
+            // Same order of draws as Experiment.Task
+            for (int i = 0; i < opsPerThread; i++) {
+                threadKeys[i] = threadValues.next();
+                threadMethods[i] = (byte) threadOps.next();
+            }
+        });
+        return new Trace(keys, methods);
+    }
+
+    // The trace of the -Dtrace=<mode> system property: none if it is not set, a generated one if
+    // it is "memory", and otherwise the file <name>.trace in the directory mode, written first if
+    // it is missing. name should identify the workload, e.g. its distributions and sizes.
+    public static Trace fromProperty(String name, int threads, int opsPerThread, Distribution ops, Distribution values)
+            throws IOException {
+        String mode = System.getProperty("trace");
+        if (mode == null) {
+            return null;
+        }
+        if (mode.equals("memory")) {
+            return generate(threads, opsPerThread, ops, values);
+        }
+        Path file = Paths.get(mode, name + ".trace");
+        if (Files.exists(file)) {
+            Trace trace = read(file);
+            if (trace.threads() != threads || trace.opsPerThread() != opsPerThread) {
+                throw new IOException(file + ": trace of " + trace.threads() + " threads and "
+                                      + trace.opsPerThread() + " operations per thread");
+            }
+            return trace;
+        }
+        Trace trace = generate(threads, opsPerThread, ops, values);
+        trace.write(file);
+        return trace;
+    }
+
+    public int threads() {
+        return keys.length;
+    }
+
+    public int opsPerThread() {
+        return keys.length == 0 ? 0 : keys[0].length;
+    }
+
+    int[] keys(int threadId) {
+        return keys[threadId];
+    }
+
+    /* 0 add, 1 remove, 2 contains, as drawn from the operations distribution */
+    byte[] ops(int threadId) {
+        return ops[threadId];
+    }
+
+    public void write(Path file) throws IOException {
+        int n = opsPerThread();
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(threads()).putInt(n);
+
+            long position = HEADER_BYTES;
+            for (int t = 0; t < threads(); t++) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, position, 5L * n);
+                region.order(ByteOrder.LITTLE_ENDIAN);
+                region.asIntBuffer().put(keys[t]);
+                region.position(4 * n);
+                region.put(ops[t]);
+                position += 5L * n;
+            }
+        }
+    }
+
+    public static Trace read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(file + ": not a trace file");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            int magic = header.getInt();
+            int version = header.getInt();
+            int threads = header.getInt();
+            int n = header.getInt();
+            if (magic != MAGIC || version != VERSION || threads < 0 || n < 0
+                    || channel.size() < HEADER_BYTES + 5L * n * threads) {
+                throw new IOException(file + ": not a version " + VERSION + " trace file, or truncated");
+            }
+
+            int[][] keys = new int[threads][n];
+            byte[][] ops = new byte[threads][n];
+            long position = HEADER_BYTES;
+            for (int t = 0; t < threads; t++) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, 5L * n);
+                region.order(ByteOrder.LITTLE_ENDIAN);
+                region.asIntBuffer().get(keys[t]);
+                region.position(4 * n);
+                region.get(ops[t]);
+                position += 5L * n;
+            }
+            return new Trace(keys, ops);
+        }
+    }
+}
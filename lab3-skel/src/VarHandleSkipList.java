@@ -0,0 +1,266 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Lock-free skiplist with the same algorithm as LockFreeSkipList, but a flat node layout.
+// Each node has a plain Node[] next array that is read and CASed through an array VarHandle,
+// instead of one AtomicMarkableReference object per level.
+//
+// A level is marked by swinging its next pointer to a marker node that holds the real successor
+// (the technique used by Harris' list and ConcurrentSkipListMap). Marking is then the only
+// operation that allocates; traversals in find() and contains() allocate nothing.
+public class VarHandleSkipList<T extends Comparable<T>> implements LockFreeSet<T> {
+    /* Default number of levels */
+    private static final int MAX_LEVEL = 16;
+
+    /* Number of levels above the bottom level, fixed at construction */
+    private final int maxLevel;
+    /* Called after every failed CAS before it is retried */
+    private final BackoffPolicy backoff;
+    /* Highest top level of any node inserted since the last reset; searches start here */
+    private final AtomicInteger height = new AtomicInteger(0);
+
+    private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(Node[].class);
+
+    private final Node<T> head;
+    private final Node<T> tail;
+
+    public VarHandleSkipList() {
+        this(MAX_LEVEL);
+    }
+
+    // Uses maxLevel levels above the bottom level, see LockFreeSkipList.levelsFor()
+    public VarHandleSkipList(int maxLevel) {
+        this(maxLevel, BackoffPolicy.NONE);
+    }
+
+    public VarHandleSkipList(int maxLevel, BackoffPolicy backoff) {
+        this.maxLevel = maxLevel;
+        this.backoff = backoff;
+        head = new Node<T>(null, maxLevel);
+        tail = new Node<T>(null, maxLevel);
+        for (int i = 0; i < head.next.length; i++) {
+            head.next[i] = tail;
+        }
+    }
+
+    private static final class Node<T> {
+        private final T value;
+        private final Node<T>[] next;
+        private final int topLevel;
+        // Marker nodes carry the successor of a marked level in next[0]
+        private final boolean marker;
+
+        @SuppressWarnings("unchecked")
+        public Node(T x, int height) {
+            value = x;
+            next = (Node<T>[]) new Node[height + 1];
+            topLevel = height;
+            marker = false;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Node(Node<T> succ) {
+            value = null;
+            next = (Node<T>[]) new Node[] {succ};
+            topLevel = 0;
+            marker = true;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Node<T> getNext(Node<T> node, int level) {
+        return (Node<T>) NEXT.getVolatile(node.next, level);
+    }
+
+    private static <T> boolean casNext(Node<T> node, int level, Node<T> expect, Node<T> update) {
+        return NEXT.compareAndSet(node.next, level, expect, update);
+    }
+
+    private static <T> boolean isMarker(Node<T> node) {
+        return node != null && node.marker;
+    }
+
+    // Reference part of a next pointer, i.e. the successor with the mark stripped
+    private static <T> Node<T> unmark(Node<T> node) {
+        return isMarker(node) ? node.next[0] : node;
+    }
+
+    /* Returns a level between 0 to maxLevel,
+     * P[randomLevel() = x] = 1/2^(x+1), for x < maxLevel.
+     */
+    private int randomLevel() {
+        int r = ThreadLocalRandom.current().nextInt();
+        int level = 0;
+        r &= (1 << maxLevel) - 1;
+        while ((r & 1) != 0) {
+            r >>>= 1;
+            level++;
+        }
+        return level;
+    }
+
+    /* Raises height to at least level before a node of that height is inserted,
+     * so every find() on its behalf fills in preds and succs up to its top level.
+     */
+    private void raiseHeight(int level) {
+        int current = height.get();
+        while (current < level && !height.compareAndSet(current, level)) {
+            current = height.get();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public boolean add(int threadId, T x) {
+        int topLevel = randomLevel();
+        raiseHeight(topLevel);
+        int bottomLevel = 0;
+        int failures = 0;
+        Node<T>[] preds = (Node<T>[]) new Node[maxLevel + 1];
+        Node<T>[] succs = (Node<T>[]) new Node[maxLevel + 1];
+        while (true) {
+            boolean found = find(x, preds, succs);
+            if (found) {
+                return false;
+            } else {
+                Node<T> newNode = new Node<T>(x, topLevel);
+                for (int level = bottomLevel; level <= topLevel; level++) {
+                    newNode.next[level] = succs[level];
+                }
+                // The CAS below publishes the plain writes above
+                Node<T> pred = preds[bottomLevel];
+                Node<T> succ = succs[bottomLevel];
+                if (!casNext(pred, bottomLevel, succ, newNode)) {
+                    backoff.backoff(++failures);
+                    continue;
+                }
+                for (int level = bottomLevel + 1; level <= topLevel; level++) {
+                    while (true) {
+                        pred = preds[level];
+                        succ = succs[level];
+                        if (casNext(pred, level, succ, newNode))
+                            break;
+                        backoff.backoff(++failures);
+                        find(x, preds, succs);
+                    }
+                }
+                return true;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public boolean remove(int threadId, T x) {
+        int bottomLevel = 0;
+        int failures = 0;
+        Node<T>[] preds = (Node<T>[]) new Node[maxLevel + 1];
+        Node<T>[] succs = (Node<T>[]) new Node[maxLevel + 1];
+        Node<T> succ;
+        while (true) {
+            boolean found = find(x, preds, succs);
+            if (!found) {
+                return false;
+            } else {
+                Node<T> nodeToRemove = succs[bottomLevel];
+                for (int level = nodeToRemove.topLevel; level >= bottomLevel + 1; level--) {
+                    succ = getNext(nodeToRemove, level);
+                    while (!isMarker(succ)) {
+                        if (!casNext(nodeToRemove, level, succ, new Node<T>(succ)))
+                            backoff.backoff(++failures);
+                        succ = getNext(nodeToRemove, level);
+                    }
+                }
+                succ = getNext(nodeToRemove, bottomLevel);
+                while (true) {
+                    if (isMarker(succ)) {
+                        // Another thread marked it first
+                        return false;
+                    }
+                    if (casNext(nodeToRemove, bottomLevel, succ, new Node<T>(succ))) {
+                        find(x, preds, succs);
+                        return true;
+                    }
+                    succ = getNext(nodeToRemove, bottomLevel);
+                    backoff.backoff(++failures);
+                }
+            }
+        }
+    }
+
+    public boolean contains(int threadId, T x) {
+        int bottomLevel = 0;
+        Node<T> pred = head;
+        Node<T> curr = null;
+        Node<T> succ = null;
+        for (int level = height.get(); level >= bottomLevel; level--) {
+            curr = unmark(getNext(pred, level));
+            while (true) {
+                succ = getNext(curr, level);
+                while (isMarker(succ)) {
+                    curr = succ.next[0];
+                    succ = getNext(curr, level);
+                }
+                if (curr.value != null && x.compareTo(curr.value) > 0) {
+                    pred = curr;
+                    curr = succ;
+                } else {
+                    break;
+                }
+            }
+        }
+        return curr.value != null && x.compareTo(curr.value) == 0;
+    }
+
+    private boolean find(T x, Node<T>[] preds, Node<T>[] succs) {
+        int bottomLevel = 0;
+        boolean snip;
+        int failures = 0;
+        Node<T> pred = null;
+        Node<T> curr = null;
+        Node<T> succ = null;
+retry:
+        while (true) {
+            pred = head;
+            for (int level = height.get(); level >= bottomLevel; level--) {
+                curr = unmark(getNext(pred, level));
+                while (true) {
+                    succ = getNext(curr, level);
+                    while (isMarker(succ)) {
+                        // curr is marked at this level: snip it out
+                        succ = succ.next[0];
+                        snip = casNext(pred, level, curr, succ);
+                        if (!snip) {
+                            backoff.backoff(++failures);
+                            continue retry;
+                        }
+                        curr = succ;
+                        succ = getNext(curr, level);
+                    }
+                    if (curr.value != null && x.compareTo(curr.value) > 0) {
+                        pred = curr;
+                        curr = succ;
+                    } else {
+                        break;
+                    }
+                }
+
+                preds[level] = pred;
+                succs[level] = curr;
+            }
+            return curr.value != null && x.compareTo(curr.value) == 0;
+        }
+    }
+
+    public Log.Entry[] getLog() {
+        // This variant does not record linearization points.
+        return null;
+    }
+
+    public void reset() {
+        height.set(0);
+        for (int i = 0; i < head.next.length; i++) {
+            NEXT.setVolatile(head.next, i, tail);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Wait-free unbounded queue of Kogan and Petrank (PPoPP 2011), with the fast-path/slow-path
+// enq() of their PPoPP 2012 follow-up.
+// enq() first makes up to MAX_FAILURES attempts at the CAS of LockFreeQueue; an attempt fails
+// whenever tail lags or moves, not only when the CAS is lost. If all of them fail it announces
+// the operation in state[threadId] with a phase, and every thread that starts an announced
+// operation later helps it to complete, so no enq() waits for more than a bounded number of
+// other operations. A fast-path enq() also checks one other thread's announcement
+// every HELPING_DELAY operations and helps it if it is still pending from the last check.
+// deq() always announces itself and helps, as in the 2011 queue.
+// Operations take the caller's threadId, 0 to threads - 1. enq(value) and deq() without one
+// give each calling thread its own id while it lives; do not mix them with explicit ids.
+public class WaitFreeQueue<T> implements ConcurrentQueue<T> {
+    /* Failed fast-path attempts of an enq() before it announces itself */
+    static final int MAX_FAILURES = 8;
+    /* Fast-path operations of a thread between two checks of another thread's announcement */
+    static final int HELPING_DELAY = 64;
+    /* Longs between two threads' help records, 128 bytes */
+    private static final int STRIDE = 16;
+
+    private final AtomicReference<Node> head, tail;
+    /* The announced operation of each thread */
+    private final AtomicReferenceArray<OpDesc> state;
+    private final AtomicLong phases = new AtomicLong(0);
+    /* Per thread at threadId * STRIDE: the thread to check next, its phase then, operations until the check */
+    private final long[] helpRecords;
+
+    /* Threads holding each id of enq(value) and deq(), and the id of the calling thread */
+    private final AtomicReferenceArray<Thread> owners;
+    private final ThreadLocal<Integer> ids = new ThreadLocal<>();
+
+    public WaitFreeQueue(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Announcements need one slot per thread, threads must be > 0");
+        }
+        Node node = new Node(null, -1);
+        head = new AtomicReference<>(node);
+        tail = new AtomicReference<>(node);
+        state = new AtomicReferenceArray<>(threads);
+        for (int i = 0; i < threads; i++) {
+            state.set(i, new OpDesc(-1, false, true, null));
+        }
+        helpRecords = new long[threads * STRIDE];
+        for (int i = 0; i < threads; i++) {
+            resetHelpRecord(i);
+        }
+        owners = new AtomicReferenceArray<>(threads);
+    }
+
+    private class Node {
+        final T value;
+        final AtomicReference<Node> next = new AtomicReference<>(null);
+        /* Announcing thread, or -1 if linked by a fast-path enq() */
+        final int enqTid;
+        /* Thread whose deq() removes this node's successor, or -1 */
+        final AtomicInteger deqTid = new AtomicInteger(-1);
+
+        Node(T value, int enqTid) {
+            this.value = value;
+            this.enqTid = enqTid;
+        }
+    }
+
+    private class OpDesc {
+        final long phase;
+        final boolean pending;
+        final boolean enqueue;
+        final Node node;
+
+        OpDesc(long phase, boolean pending, boolean enqueue, Node node) {
+            this.phase = phase;
+            this.pending = pending;
+            this.enqueue = enqueue;
+            this.node = node;
+        }
+    }
+
+    public void enq(T value) {
+        enq(threadId(), value);
+    }
+
+    public T deq() throws IllegalStateException {
+        return deq(threadId());
+    }
+
+    public void enq(int threadId, T value) {
+        helpIfNeeded(threadId);
+        Node node = new Node(value, -1);
+        for (int trials = 0; trials < MAX_FAILURES; trials++) {
+            if (enqFast(node)) {
+                return;
+            }
+        }
+        // Slow path: announce and let everyone help
+        long phase = phases.incrementAndGet();
+        state.set(threadId, new OpDesc(phase, true, true, new Node(value, threadId)));
+        help(phase);
+        helpFinishEnq();
+    }
+
+    // One attempt to link node after tail. Returns false if tail moved, lagged or the CAS was lost,
+    // so that every way of not linking node counts against MAX_FAILURES.
+    private boolean enqFast(Node node) {
+        Node last = tail.get();
+        Node next = last.next.get();
+        if (last != tail.get()) {
+            return false;
+        }
+        if (next != null) {
+            helpFinishEnq();
+            return false;
+        }
+        if (!last.next.compareAndSet(null, node)) {
+            return false;
+        }
+        tail.compareAndSet(last, node);
+        return true;
+    }
+
+    public T deq(int threadId) throws IllegalStateException {
+        long phase = phases.incrementAndGet();
+        state.set(threadId, new OpDesc(phase, true, false, null));
+        help(phase);
+        helpFinishDeq();
+        Node node = state.get(threadId).node;
+        if (node == null) {
+            throw new IllegalStateException();
+        }
+        return node.next.get().value;
+    }
+
+    // Every HELPING_DELAY calls, helps the thread checked last time if its announcement then is
+    // still pending, and moves on to the next thread.
+    private void helpIfNeeded(int threadId) {
+        int record = threadId * STRIDE;
+        if (--helpRecords[record + 2] > 0) {
+            return;
+        }
+        int other = (int) helpRecords[record];
+        OpDesc desc = state.get(other);
+        if (desc.pending && desc.phase == helpRecords[record + 1]) {
+            if (desc.enqueue) {
+                helpEnq(other, desc.phase);
+            } else {
+                helpDeq(other, desc.phase);
+            }
+        }
+        helpRecords[record] = (other + 1) % state.length();
+        resetHelpRecord(threadId);
+    }
+
+    private void resetHelpRecord(int threadId) {
+        int record = threadId * STRIDE;
+        helpRecords[record + 1] = state.get((int) helpRecords[record]).phase;
+        helpRecords[record + 2] = HELPING_DELAY;
+    }
+
+    /* Helps every pending operation announced in a phase up to phase */
+    private void help(long phase) {
+        for (int i = 0; i < state.length(); i++) {
+            OpDesc desc = state.get(i);
+            if (desc.pending && desc.phase <= phase) {
+                if (desc.enqueue) {
+                    helpEnq(i, phase);
+                } else {
+                    helpDeq(i, phase);
+                }
+            }
+        }
+    }
+
+    private boolean isStillPending(int threadId, long phase) {
+        OpDesc desc = state.get(threadId);
+        return desc.pending && desc.phase <= phase;
+    }
+
+    private void helpEnq(int threadId, long phase) {
+        while (isStillPending(threadId, phase)) {
+            Node last = tail.get();
+            Node next = last.next.get();
+            if (last == tail.get()) {
+                if (next == null) {
+                    // Checked again after reading last: if the node was linked, tail cannot have
+                    // moved past it before its announcement was completed
+                    if (isStillPending(threadId, phase)) {
+                        if (last.next.compareAndSet(null, state.get(threadId).node)) {
+                            helpFinishEnq();
+                            return;
+                        }
+                    }
+                } else {
+                    helpFinishEnq();
+                }
+            }
+        }
+    }
+
+    /* Completes the announcement of the node after tail, if any, then moves tail to it */
+    private void helpFinishEnq() {
+        Node last = tail.get();
+        Node next = last.next.get();
+        if (next != null) {
+            int threadId = next.enqTid;
+            if (threadId >= 0) {
+                OpDesc desc = state.get(threadId);
+                if (last == tail.get() && desc.node == next) {
+                    state.compareAndSet(threadId, desc, new OpDesc(desc.phase, false, true, next));
+                }
+            }
+            tail.compareAndSet(last, next);
+        }
+    }
+
+    private void helpDeq(int threadId, long phase) {
+        while (isStillPending(threadId, phase)) {
+            Node first = head.get();
+            Node last = tail.get();
+            Node next = first.next.get();
+            if (first == head.get()) {
+                if (first == last) {
+                    if (next == null) {
+                        // Empty: complete the deq() without a node
+                        OpDesc desc = state.get(threadId);
+                        if (last == tail.get() && isStillPending(threadId, phase)) {
+                            state.compareAndSet(threadId, desc, new OpDesc(desc.phase, false, false, null));
+                        }
+                    } else {
+                        helpFinishEnq();
+                    }
+                } else {
+                    OpDesc desc = state.get(threadId);
+                    if (!isStillPending(threadId, phase)) {
+                        break;
+                    }
+                    // Record first as the node whose successor this deq() is about to remove
+                    if (first == head.get() && desc.node != first) {
+                        if (!state.compareAndSet(threadId, desc, new OpDesc(desc.phase, true, false, first))) {
+                            continue;
+                        }
+                    }
+                    first.deqTid.compareAndSet(-1, threadId);
+                    helpFinishDeq();
+                }
+            }
+        }
+    }
+
+    /* Completes the deq() that claimed head, if any, then moves head past it */
+    private void helpFinishDeq() {
+        Node first = head.get();
+        Node next = first.next.get();
+        int threadId = first.deqTid.get();
+        if (threadId != -1) {
+            OpDesc desc = state.get(threadId);
+            if (first == head.get() && next != null) {
+                state.compareAndSet(threadId, desc, new OpDesc(desc.phase, false, false, desc.node));
+                head.compareAndSet(first, next);
+            }
+        }
+    }
+
+    // The id of the calling thread, claiming one held by no live thread on its first call.
+    private int threadId() {
+        Integer id = ids.get();
+        if (id != null) {
+            return id;
+        }
+        Thread self = Thread.currentThread();
+        for (int i = 0; i < owners.length(); i++) {
+            Thread owner = owners.get(i);
+            // A thread ends only after its last operation completed, so its id is free
+            if ((owner == null || !owner.isAlive()) && owners.compareAndSet(i, owner, self)) {
+                ids.set(i);
+                return i;
+            }
+        }
+        throw new IllegalStateException("More than " + owners.length() + " live threads use the queue");
+    }
+
+    public T[] toArray(T[] a) {
+        // Start at the first node, add it to the array list, iterate through until reach the tail node
+        ArrayList<T> store = new ArrayList<T>();
+        Node curr = head.get().next.get();
+        while (curr != null) {
+            store.add(curr.value);
+            curr = curr.next.get();
+        }
+        return store.toArray(a);
+    }
+
+    public void clear() {
+        Node newNode = new Node(null, -1);
+        while (true) {
+            Node currHead = head.get();
+            Node currTail = tail.get();
+            // Try to update tail, but don't fail if it doesn't work
+            if (head.compareAndSet(currHead, newNode)) {
+                tail.compareAndSet(currTail, newNode);
+                return;
+            }
+        }
+    }
+}